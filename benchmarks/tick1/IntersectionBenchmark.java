@@ -0,0 +1,80 @@
+package tick1;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Ray-object intersection throughput. Each invocation tests RAY_COUNT rays, so the reported score
+ * is in rays per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class IntersectionBenchmark {
+
+	static final int RAY_COUNT = 1024;
+
+	private Ray[] rays;
+	private Vector3[] surfacePoints;
+	private Sphere sphere;
+	private Plane plane;
+	private BumpySphere bumpySphere;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		sphere = new Sphere(new Vector3(0, 0, 4), 1, new ColorRGB(1));
+		plane = new Plane(new Vector3(0, -1, 0), new Vector3(0, 1, 0), new ColorRGB(1));
+		bumpySphere = new BumpySphere(new Vector3(0, 0, 4), 1, new ColorRGB(1), "assets/bumpmap.png");
+
+		// Rays from the camera spread over the field of view, so some hit and some miss
+		rays = new Ray[RAY_COUNT];
+		surfacePoints = new Vector3[RAY_COUNT];
+		for (int i = 0; i < RAY_COUNT; i++) {
+			Vector3 direction = new Vector3(random.nextDouble() - 0.5, random.nextDouble() - 0.5, 1).normalised();
+			rays[i] = new Ray(new Vector3(0), direction);
+			Vector3 onSphere = new Vector3(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+			surfacePoints[i] = sphere.getPosition().add(onSphere.normalised());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAY_COUNT)
+	public void sphereIntersection(Blackhole blackhole) {
+		for (Ray ray : rays) {
+			blackhole.consume(sphere.intersectionWith(ray));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAY_COUNT)
+	public void planeIntersection(Blackhole blackhole) {
+		for (Ray ray : rays) {
+			blackhole.consume(plane.intersectionWith(ray));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAY_COUNT)
+	public void bumpySphereNormal(Blackhole blackhole) {
+		for (Vector3 point : surfacePoints) {
+			blackhole.consume(bumpySphere.getNormalAt(point));
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package tick1;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Shading and whole-frame rendering of the bundled scenes. Run from the repository root so that
+ * scene files and bump maps resolve.
+ */
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark {
+
+	static final int SHADING_POINTS = 64;
+
+	@Param({ "assets/test1.xml", "assets/test2.xml", "assets/bumpmapping.xml", "assets/depth-of-field.xml" })
+	public String sceneFile;
+
+	// Frame size; kept small by default so a full sweep of the scenes finishes in minutes
+	@Param({ "160" })
+	public int width;
+
+	@Param({ "120" })
+	public int height;
+
+	@Param({ "1" })
+	public int threads;
+
+	// Whether the whole render traces samples breadth-first with a WavefrontTracer
+	@Param({ "false", "true" })
+	public boolean wavefront;
+
+	private Scene scene;
+	private Renderer renderer;
+	private RaycastHit[] hits;
+	private Ray[] rays;
+
+	@Setup
+	public void setup() {
+		scene = new SceneLoader(sceneFile).getScene();
+		renderer = new Renderer(width, height, Tick1.DEFAULT_BOUNCES, threads);
+		renderer.setWavefront(wavefront);
+
+		// Collect primary hits spread over the image to shade
+		Camera camera = new Camera(width, height);
+		hits = new RaycastHit[SHADING_POINTS];
+		rays = new Ray[SHADING_POINTS];
+		int found = 0;
+		for (int i = 0; found < SHADING_POINTS && i < width * height; i = i + 7) {
+			Ray ray = camera.castRay(i % width, i / width);
+			RaycastHit hit = scene.findClosestIntersection(ray);
+			if (hit.getObjectHit() != null) {
+				rays[found] = ray;
+				hits[found++] = hit;
+			}
+		}
+		if (found < SHADING_POINTS) {
+			throw new IllegalStateException("scene has too few visible surfaces to benchmark shading");
+		}
+	}
+
+	// Direct illumination (including soft-shadow rays) per shading point
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@Warmup(iterations = 3, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	@OperationsPerInvocation(SHADING_POINTS)
+	public void illuminate(Blackhole blackhole) {
+		for (int i = 0; i < SHADING_POINTS; i++) {
+			RaycastHit hit = hits[i];
+			blackhole.consume(renderer.illuminate(scene, hit.getObjectHit(), hit.getLocation(), hit.getNormal(),
+					rays[i].getOrigin()));
+		}
+	}
+
+	// Time to render a whole frame
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 3)
+	public Object render() {
+		return renderer.render(scene);
+	}
+}
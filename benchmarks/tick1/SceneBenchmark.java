@@ -0,0 +1,112 @@
+package tick1;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Closest-hit and occlusion queries against generated scenes of increasing size, reported in rays
+ * per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SceneBenchmark {
+
+	static final int RAY_COUNT = 1024;
+	static final int PACKET_SIZE = 8;
+
+	@Param({ "10", "100", "1000", "10000" })
+	public int objectCount;
+
+	private Scene scene;
+	private Ray[] rays;
+
+	// Depth-of-field style rays: consecutive groups of PACKET_SIZE pass through one focal point
+	private Ray[] coherentRays;
+	private RayPacket packet = new RayPacket(PACKET_SIZE);
+	private RaycastHit[] hits = new RaycastHit[PACKET_SIZE];
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+
+		// Spheres scattered in front of the camera above a ground plane, sized to keep coverage similar
+		scene = new Scene();
+		double radius = 2.0 / Math.cbrt(objectCount);
+		for (int i = 0; i < objectCount; i++) {
+			Vector3 position = new Vector3(8 * random.nextDouble() - 4, 6 * random.nextDouble() - 2, 4 + 8 * random.nextDouble());
+			scene.addObject(new Sphere(position, radius * (0.5 + random.nextDouble()), new ColorRGB(1)));
+		}
+		scene.addObject(new Plane(new Vector3(0, -2, 0), new Vector3(0, 1, 0), new ColorRGB(1)));
+		scene.buildAccelerationStructure();
+
+		rays = new Ray[RAY_COUNT];
+		for (int i = 0; i < RAY_COUNT; i++) {
+			Vector3 direction = new Vector3(random.nextDouble() - 0.5, random.nextDouble() - 0.5, 1).normalised();
+			rays[i] = new Ray(new Vector3(0), direction);
+		}
+
+		coherentRays = new Ray[RAY_COUNT];
+		for (int i = 0; i < RAY_COUNT; i += PACKET_SIZE) {
+			Vector3 focalPoint = rays[i].getDirection().scale(3.5 / rays[i].getDirection().z);
+			for (int j = i; j < i + PACKET_SIZE; j++) {
+				Vector3 origin = new Vector3(0.14 * random.nextDouble() - 0.07, 0.14 * random.nextDouble() - 0.07, 0);
+				coherentRays[j] = new Ray(origin, focalPoint.subtract(origin).normalised());
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAY_COUNT)
+	public void findClosestIntersection(Blackhole blackhole) {
+		for (Ray ray : rays) {
+			blackhole.consume(scene.findClosestIntersection(ray));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAY_COUNT)
+	public void coherentSingleRays(Blackhole blackhole) {
+		for (Ray ray : coherentRays) {
+			blackhole.consume(scene.findClosestIntersection(ray));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAY_COUNT)
+	public void coherentPackets(Blackhole blackhole) {
+		for (int i = 0; i < RAY_COUNT; i += PACKET_SIZE) {
+			packet.clear();
+			for (int j = i; j < i + PACKET_SIZE; j++) {
+				packet.add(coherentRays[j]);
+			}
+			scene.findClosestIntersections(packet, hits);
+			blackhole.consume(hits);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAY_COUNT)
+	public void occluded(Blackhole blackhole) {
+		for (Ray ray : rays) {
+			blackhole.consume(scene.occluded(ray, 10));
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package tick1;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class AccumulationBuffer {
+
+	// The width and height of the buffer in pixels, and the image column and row of its top left pixel
+	private int width, height, left, top;
+
+	// Running sums of linear colour, three floats (red, green, blue) per pixel
+	private float[] colourSums;
+
+	// Number of samples taken, and sums of luminance and squared luminance, per pixel
+	private int[] sampleCounts;
+	private float[] luminanceSums, luminanceSquaredSums;
+
+	public AccumulationBuffer(int width, int height) {
+		this(width, height, 0);
+	}
+
+	// Create a buffer for the band of an image's rows from top to top + height
+	public AccumulationBuffer(int width, int height, int top) {
+		this(width, height, 0, top);
+	}
+
+	// Create a buffer for the region of an image width by height pixels from (left, top), such as a tile
+	public AccumulationBuffer(int width, int height, int left, int top) {
+		this.width = width;
+		this.height = height;
+		this.left = left;
+		this.top = top;
+		colourSums = new float[3 * width * height];
+		sampleCounts = new int[width * height];
+		luminanceSums = new float[width * height];
+		luminanceSquaredSums = new float[width * height];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	// Add a sample of linear colour to the pixel at (x, y)
+	public void addSample(int x, int y, double red, double green, double blue) {
+		int pixel = (y - top) * width + x - left;
+		colourSums[3 * pixel] += red;
+		colourSums[3 * pixel + 1] += green;
+		colourSums[3 * pixel + 2] += blue;
+
+		double luminance = 0.2126 * red + 0.7152 * green + 0.0722 * blue;
+		luminanceSums[pixel] += luminance;
+		luminanceSquaredSums[pixel] += luminance * luminance;
+		sampleCounts[pixel]++;
+	}
+
+	public int getSampleCount(int x, int y) {
+		return sampleCounts[(y - top) * width + x - left];
+	}
+
+	// Get the mean linear colour of the pixel at (x, y), or black if it has no samples
+	public ColorRGB getMean(int x, int y) {
+		int pixel = (y - top) * width + x - left;
+		int samples = Math.max(1, sampleCounts[pixel]);
+		return new ColorRGB(colourSums[3 * pixel] / (double) samples, colourSums[3 * pixel + 1] / (double) samples,
+				colourSums[3 * pixel + 2] / (double) samples);
+	}
+
+	// Get the mean linear colour of every pixel as an image, whose top left pixel is the buffer's
+	public HdrImage toHdrImage() {
+		HdrImage image = new HdrImage(width, height);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int pixel = y * width + x;
+				double samples = Math.max(1, sampleCounts[pixel]);
+				image.setPixel(x, y, colourSums[3 * pixel] / samples, colourSums[3 * pixel + 1] / samples,
+						colourSums[3 * pixel + 2] / samples);
+			}
+		}
+		return image;
+	}
+
+	// Get the mean luminance of the pixel at (x, y)
+	public double getMeanLuminance(int x, int y) {
+		int pixel = (y - top) * width + x - left;
+		return luminanceSums[pixel] / (double) Math.max(1, sampleCounts[pixel]);
+	}
+
+	// Write the sums of the pixels in [x0, x1) by [y0, y1), row by row, for addRegion to read
+	public void writeRegion(DataOutput out, int x0, int y0, int x1, int y1) throws IOException {
+		for (int y = y0; y < y1; y++) {
+			for (int x = x0; x < x1; x++) {
+				int pixel = (y - top) * width + x - left;
+				out.writeInt(sampleCounts[pixel]);
+				out.writeFloat(colourSums[3 * pixel]);
+				out.writeFloat(colourSums[3 * pixel + 1]);
+				out.writeFloat(colourSums[3 * pixel + 2]);
+				out.writeFloat(luminanceSums[pixel]);
+				out.writeFloat(luminanceSquaredSums[pixel]);
+			}
+		}
+	}
+
+	// Add sums written by writeRegion to the pixels of the same region of this buffer
+	public void addRegion(DataInput in, int x0, int y0, int x1, int y1) throws IOException {
+		for (int y = y0; y < y1; y++) {
+			for (int x = x0; x < x1; x++) {
+				int pixel = (y - top) * width + x - left;
+				sampleCounts[pixel] += in.readInt();
+				colourSums[3 * pixel] += in.readFloat();
+				colourSums[3 * pixel + 1] += in.readFloat();
+				colourSums[3 * pixel + 2] += in.readFloat();
+				luminanceSums[pixel] += in.readFloat();
+				luminanceSquaredSums[pixel] += in.readFloat();
+			}
+		}
+	}
+
+	// Get the standard error of the pixel's mean luminance, or infinity with fewer than two samples
+	public double getStandardError(int x, int y) {
+		int pixel = (y - top) * width + x - left;
+		int samples = sampleCounts[pixel];
+		if (samples < 2) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double mean = luminanceSums[pixel] / (double) samples;
+		double variance = Math.max(0, (luminanceSquaredSums[pixel] - luminanceSums[pixel] * mean) / (samples - 1));
+		return Math.sqrt(variance / samples);
+	}
+}
@@ -0,0 +1,10 @@
+package tick1;
+
+import java.io.IOException;
+
+// Receives the bands of rows of an image from Renderer.renderBands as they are completed
+public interface BandListener {
+
+	// Called with the linear image of each band in turn, whose first row is row top of the image
+	void band(HdrImage band, int top) throws IOException;
+}
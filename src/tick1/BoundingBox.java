@@ -0,0 +1,25 @@
+package tick1;
+
+public class BoundingBox {
+
+	// Corners of the box with the smallest and largest coordinates
+	private Vector3 min, max;
+
+	public BoundingBox(Vector3 min, Vector3 max) {
+		this.min = min;
+		this.max = max;
+	}
+
+	public Vector3 getMin() {
+		return min;
+	}
+
+	public Vector3 getMax() {
+		return max;
+	}
+
+	// Get the centre point of the box
+	public Vector3 getCentre() {
+		return min.add(max).scale(0.5);
+	}
+}
@@ -0,0 +1,474 @@
+package tick1;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class BoundingVolumeHierarchy {
+
+	// Number of buckets objects are sorted into when evaluating the surface area heuristic
+	private final int SAH_BIN_COUNT = 12;
+
+	// Largest number of objects stored in a single leaf, matched to the width of a sphere batch test
+	private final int MAX_LEAF_SIZE = 8;
+
+	// Cost of visiting a node relative to testing a single object in a batch
+	private final double TRAVERSAL_COST = 4.0;
+
+	// The objects, reordered so that each leaf refers to a contiguous range, and the spheres among
+	// them in structure-of-arrays form for batched intersection
+	private SceneObject[] objects;
+	private SphereBatch sphereBatch;
+
+	// Flattened nodes: bounds as (minX, minY, minZ, maxX, maxY, maxZ), then either the index of the
+	// first object (leaf, count > 0) or the index of the left child, with the right child following it
+	private double[] nodeBounds;
+	private int[] nodeFirst;
+	private int[] nodeCount;
+	private int nodesUsed;
+
+	// Scratch space per thread: a traversal stack sized to hold the deepest path through the tree, and
+	// distances from a leaf's batch test
+	private int maxDepth;
+	private final ThreadLocal<Traversal> traversals = ThreadLocal.withInitial(() -> new Traversal(maxDepth + 2, MAX_LEAF_SIZE));
+
+	private static class Traversal {
+		final int[] stack;
+		final double[] distances;
+		final long[] counts = RenderStats.getThreadCounts(); // Saves looking them up per ray
+
+		Traversal(int stackSize, int leafSize) {
+			stack = new int[stackSize];
+			distances = new double[leafSize];
+		}
+	}
+
+	// Per-object bounds and centroids used during the build, indexed by original object index
+	private double[] objectBounds;
+	private double[] centroids;
+	private int[] order;
+
+	// Build a hierarchy over objects, which must all have a bounding box
+	public BoundingVolumeHierarchy(List<SceneObject> boundedObjects) {
+		int n = boundedObjects.size();
+		SceneObject[] input = boundedObjects.toArray(new SceneObject[n]);
+
+		objectBounds = new double[6 * n];
+		centroids = new double[3 * n];
+		order = new int[n];
+		for (int i = 0; i < n; i++) {
+			BoundingBox box = input[i].getBoundingBox();
+			Vector3 min = box.getMin();
+			Vector3 max = box.getMax();
+			objectBounds[6 * i] = min.x;
+			objectBounds[6 * i + 1] = min.y;
+			objectBounds[6 * i + 2] = min.z;
+			objectBounds[6 * i + 3] = max.x;
+			objectBounds[6 * i + 4] = max.y;
+			objectBounds[6 * i + 5] = max.z;
+			for (int axis = 0; axis < 3; axis++) {
+				centroids[3 * i + axis] = 0.5 * (objectBounds[6 * i + axis] + objectBounds[6 * i + 3 + axis]);
+			}
+			order[i] = i;
+		}
+
+		int maxNodes = Math.max(1, 2 * n - 1);
+		nodeBounds = new double[6 * maxNodes];
+		nodeFirst = new int[maxNodes];
+		nodeCount = new int[maxNodes];
+		nodesUsed = 1;
+		if (n == 0) {
+			setEmpty(nodeBounds, 0);
+		} else {
+			build(0, 0, n, 0);
+		}
+
+		objects = new SceneObject[n];
+		for (int i = 0; i < n; i++) {
+			objects[i] = input[order[i]];
+		}
+		sphereBatch = new SphereBatch(objects);
+
+		// Build-time data is no longer needed
+		objectBounds = centroids = null;
+		order = null;
+	}
+
+	/*
+	 * Recursively build the subtree rooted at node over order[first, first + count), splitting along
+	 * the axis and bucket boundary with the lowest surface area heuristic cost.
+	 */
+	private void build(int node, int first, int count, int depth) {
+		maxDepth = Math.max(maxDepth, depth);
+
+		// Compute the bounds of the objects and of their centroids
+		setEmpty(nodeBounds, node);
+		double[] centroidBounds = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for (int i = first; i < first + count; i++) {
+			int object = order[i];
+			for (int axis = 0; axis < 3; axis++) {
+				nodeBounds[6 * node + axis] = Math.min(nodeBounds[6 * node + axis], objectBounds[6 * object + axis]);
+				nodeBounds[6 * node + 3 + axis] = Math.max(nodeBounds[6 * node + 3 + axis], objectBounds[6 * object + 3 + axis]);
+				centroidBounds[axis] = Math.min(centroidBounds[axis], centroids[3 * object + axis]);
+				centroidBounds[3 + axis] = Math.max(centroidBounds[3 + axis], centroids[3 * object + axis]);
+			}
+		}
+
+		if (count <= 2) {
+			makeLeaf(node, first, count);
+			return;
+		}
+
+		// Evaluate the SAH cost of splitting at each bucket boundary along each axis
+		double bestCost = Double.POSITIVE_INFINITY;
+		int bestAxis = -1;
+		int bestBin = -1;
+		for (int axis = 0; axis < 3; axis++) {
+			double lo = centroidBounds[axis];
+			double extent = centroidBounds[3 + axis] - lo;
+			if (extent <= 0) {
+				continue; // All centroids coincide along this axis
+			}
+
+			int[] binCount = new int[SAH_BIN_COUNT];
+			double[] binBounds = new double[6 * SAH_BIN_COUNT];
+			for (int b = 0; b < SAH_BIN_COUNT; b++) {
+				setEmpty(binBounds, b);
+			}
+			for (int i = first; i < first + count; i++) {
+				int object = order[i];
+				int b = binFor(centroids[3 * object + axis], lo, extent);
+				binCount[b]++;
+				grow(binBounds, b, objectBounds, object);
+			}
+
+			// Sweep from the right to get the area and count to the right of each boundary
+			double[] rightArea = new double[SAH_BIN_COUNT];
+			int[] rightCount = new int[SAH_BIN_COUNT];
+			double[] sweep = new double[6];
+			setEmpty(sweep, 0);
+			int sweepCount = 0;
+			for (int b = SAH_BIN_COUNT - 1; b > 0; b--) {
+				grow(sweep, 0, binBounds, b);
+				sweepCount += binCount[b];
+				rightArea[b] = surfaceArea(sweep, 0);
+				rightCount[b] = sweepCount;
+			}
+
+			// Sweep from the left, combining with the right-hand totals
+			setEmpty(sweep, 0);
+			sweepCount = 0;
+			for (int b = 0; b < SAH_BIN_COUNT - 1; b++) {
+				grow(sweep, 0, binBounds, b);
+				sweepCount += binCount[b];
+				if (sweepCount == 0 || rightCount[b + 1] == 0) {
+					continue;
+				}
+				double cost = sweepCount * surfaceArea(sweep, 0) + rightCount[b + 1] * rightArea[b + 1];
+				if (cost < bestCost) {
+					bestCost = cost;
+					bestAxis = axis;
+					bestBin = b;
+				}
+			}
+		}
+
+		// Compare the best split against keeping the objects in a leaf
+		double nodeArea = surfaceArea(nodeBounds, node);
+		double leafCost = count;
+		double splitCost = nodeArea > 0 ? TRAVERSAL_COST + bestCost / nodeArea : Double.POSITIVE_INFINITY;
+		int mid;
+		if (bestAxis >= 0 && (splitCost < leafCost || count > MAX_LEAF_SIZE)) {
+			// Partition objects by which side of the chosen boundary their centroid lies
+			double lo = centroidBounds[bestAxis];
+			double extent = centroidBounds[3 + bestAxis] - lo;
+			int i = first;
+			int j = first + count - 1;
+			while (i <= j) {
+				if (binFor(centroids[3 * order[i] + bestAxis], lo, extent) <= bestBin) {
+					i++;
+				} else {
+					int swap = order[i];
+					order[i] = order[j];
+					order[j--] = swap;
+				}
+			}
+			mid = i;
+		} else if (count > MAX_LEAF_SIZE) {
+			// Centroids coincide, so split the range in half to bound leaf sizes
+			mid = first + count / 2;
+		} else {
+			makeLeaf(node, first, count);
+			return;
+		}
+
+		int left = nodesUsed;
+		nodesUsed += 2;
+		nodeFirst[node] = left;
+		nodeCount[node] = 0;
+		build(left, first, mid - first, depth + 1);
+		build(left + 1, mid, first + count - mid, depth + 1);
+	}
+
+	private void makeLeaf(int node, int first, int count) {
+		nodeFirst[node] = first;
+		nodeCount[node] = count;
+	}
+
+	private int binFor(double centroid, double lo, double extent) {
+		int b = (int) (SAH_BIN_COUNT * (centroid - lo) / extent);
+		return Math.min(SAH_BIN_COUNT - 1, Math.max(0, b));
+	}
+
+	private static void setEmpty(double[] bounds, int box) {
+		for (int axis = 0; axis < 3; axis++) {
+			bounds[6 * box + axis] = Double.POSITIVE_INFINITY;
+			bounds[6 * box + 3 + axis] = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	// Grow box a in bounds to contain box b in other
+	private static void grow(double[] bounds, int a, double[] other, int b) {
+		for (int axis = 0; axis < 3; axis++) {
+			bounds[6 * a + axis] = Math.min(bounds[6 * a + axis], other[6 * b + axis]);
+			bounds[6 * a + 3 + axis] = Math.max(bounds[6 * a + 3 + axis], other[6 * b + 3 + axis]);
+		}
+	}
+
+	private static double surfaceArea(double[] bounds, int box) {
+		double dx = bounds[6 * box + 3] - bounds[6 * box];
+		double dy = bounds[6 * box + 4] - bounds[6 * box + 1];
+		double dz = bounds[6 * box + 5] - bounds[6 * box + 2];
+		if (dx < 0 || dy < 0 || dz < 0) {
+			return 0;
+		}
+		return 2 * (dx * dy + dy * dz + dz * dx);
+	}
+
+	/*
+	 * Distance along the ray at which it enters the bounds of node, or infinity if it misses.
+	 * NaNs from rays lying in a slab plane fail every comparison, so they leave the interval unchanged.
+	 */
+	private double entryDistance(int node, double ox, double oy, double oz, double invDx, double invDy, double invDz) {
+		int i = 6 * node;
+		double tMin = 0;
+		double tMax = Double.POSITIVE_INFINITY;
+
+		double t1 = (nodeBounds[i] - ox) * invDx;
+		double t2 = (nodeBounds[i + 3] - ox) * invDx;
+		if (t1 > t2) { double swap = t1; t1 = t2; t2 = swap; }
+		if (t1 > tMin) tMin = t1;
+		if (t2 < tMax) tMax = t2;
+
+		t1 = (nodeBounds[i + 1] - oy) * invDy;
+		t2 = (nodeBounds[i + 4] - oy) * invDy;
+		if (t1 > t2) { double swap = t1; t1 = t2; t2 = swap; }
+		if (t1 > tMin) tMin = t1;
+		if (t2 < tMax) tMax = t2;
+
+		t1 = (nodeBounds[i + 2] - oz) * invDz;
+		t2 = (nodeBounds[i + 5] - oz) * invDz;
+		if (t1 > t2) { double swap = t1; t1 = t2; t2 = swap; }
+		if (t1 > tMin) tMin = t1;
+		if (t2 < tMax) tMax = t2;
+
+		return tMin <= tMax ? tMin : Double.POSITIVE_INFINITY;
+	}
+
+	/*
+	 * Find the closest intersection of ray with an object in the hierarchy that is nearer than closestHit.
+	 * Only distances are computed during traversal; the hit's location and normal are built once at the end.
+	 */
+	public RaycastHit findClosestIntersection(Ray ray, RaycastHit closestHit) {
+		if (objects.length == 0) {
+			return closestHit;
+		}
+
+		Vector3 O = ray.getOrigin();
+		Vector3 D = ray.getDirection();
+		double invDx = 1 / D.x, invDy = 1 / D.y, invDz = 1 / D.z;
+		double closestDistance = closestHit.getDistance();
+		int closestObject = -1;
+
+		Traversal traversal = traversals.get();
+		int[] stack = traversal.stack;
+		double[] distances = traversal.distances;
+		int stackSize = 0;
+		if (entryDistance(0, O.x, O.y, O.z, invDx, invDy, invDz) < closestDistance) {
+			stack[stackSize++] = 0;
+		}
+
+		int tests = 0;
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+
+			if (nodeCount[node] > 0) { // Leaf - test its spheres together, then anything else individually
+				int first = nodeFirst[node];
+				int count = nodeCount[node];
+				tests += count;
+				sphereBatch.intersect(first, count, O.x, O.y, O.z, D.x, D.y, D.z, distances);
+				for (int i = 0; i < count; i++) {
+					double distance = sphereBatch.isSphere(first + i) ? distances[i]
+							: objects[first + i].intersectionDistance(O.x, O.y, O.z, D.x, D.y, D.z);
+					if (distance < closestDistance) {
+						closestDistance = distance;
+						closestObject = first + i;
+					}
+				}
+			} else { // Internal node - visit the nearer child first
+				int left = nodeFirst[node];
+				int right = left + 1;
+				double leftDistance = entryDistance(left, O.x, O.y, O.z, invDx, invDy, invDz);
+				double rightDistance = entryDistance(right, O.x, O.y, O.z, invDx, invDy, invDz);
+				if (leftDistance > rightDistance) {
+					int swap = left; left = right; right = swap;
+					double swapDistance = leftDistance; leftDistance = rightDistance; rightDistance = swapDistance;
+				}
+				if (rightDistance < closestDistance) {
+					stack[stackSize++] = right;
+				}
+				if (leftDistance < closestDistance) {
+					stack[stackSize++] = left;
+				}
+			}
+		}
+
+		RenderStats.add(traversal.counts, RenderStats.Counter.INTERSECTION_TESTS, tests);
+		if (closestObject < 0) {
+			return closestHit;
+		}
+		return new RaycastHit(objects[closestObject], closestDistance, ray);
+	}
+
+	// Get the objects in the hierarchy, in no particular order
+	List<SceneObject> getObjects() {
+		return Arrays.asList(objects);
+	}
+
+	/*
+	 * Find the closest intersection of every ray in packet, replacing hits[i] where a nearer one is found.
+	 * The packet is traversed together: a node is culled only when no ray enters it before that ray's
+	 * current closest hit, and a leaf tests each ray that reaches it against its sphere batch.
+	 */
+	public void findClosestIntersections(RayPacket packet, RaycastHit[] hits) {
+		int n = packet.size();
+		if (objects.length == 0 || n == 0) {
+			return;
+		}
+
+		for (int r = 0; r < n; r++) {
+			packet.closestDistance[r] = hits[r].getDistance();
+			packet.closestObject[r] = -1;
+		}
+
+		Traversal traversal = traversals.get();
+		int[] stack = traversal.stack;
+		double[] distances = traversal.distances;
+		int stackSize = 0;
+		stack[stackSize++] = 0;
+
+		int tests = 0;
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+
+			// Find the first ray that enters the node before its closest hit, or cull the node if there is none
+			int firstActive = 0;
+			while (firstActive < n && entryDistance(node, packet, firstActive) >= packet.closestDistance[firstActive]) {
+				firstActive++;
+			}
+			if (firstActive == n) {
+				continue;
+			}
+
+			if (nodeCount[node] > 0) { // Leaf - test each remaining ray against the objects
+				int first = nodeFirst[node];
+				int count = nodeCount[node];
+				tests += (n - firstActive) * count;
+				for (int r = firstActive; r < n; r++) {
+					Ray ray = packet.getRay(r);
+					Vector3 O = ray.getOrigin();
+					Vector3 D = ray.getDirection();
+					sphereBatch.intersect(first, count, O.x, O.y, O.z, D.x, D.y, D.z, distances);
+					for (int i = 0; i < count; i++) {
+						double distance = sphereBatch.isSphere(first + i) ? distances[i]
+								: objects[first + i].intersectionDistance(O.x, O.y, O.z, D.x, D.y, D.z);
+						if (distance < packet.closestDistance[r]) {
+							packet.closestDistance[r] = distance;
+							packet.closestObject[r] = first + i;
+						}
+					}
+				}
+			} else { // Internal node - visit the child nearer to the first active ray first
+				int left = nodeFirst[node];
+				int right = left + 1;
+				if (entryDistance(left, packet, firstActive) > entryDistance(right, packet, firstActive)) {
+					int swap = left; left = right; right = swap;
+				}
+				stack[stackSize++] = right;
+				stack[stackSize++] = left;
+			}
+		}
+
+		RenderStats.add(traversal.counts, RenderStats.Counter.INTERSECTION_TESTS, tests);
+
+		// Build hit records for rays that found something nearer
+		for (int r = 0; r < n; r++) {
+			int closestObject = packet.closestObject[r];
+			if (closestObject >= 0) {
+				hits[r] = new RaycastHit(objects[closestObject], packet.closestDistance[r], packet.getRay(r));
+			}
+		}
+	}
+
+	private double entryDistance(int node, RayPacket packet, int r) {
+		return entryDistance(node, packet.originX[r], packet.originY[r], packet.originZ[r], packet.inverseX[r],
+				packet.inverseY[r], packet.inverseZ[r]);
+	}
+
+	// Determine whether any object in the hierarchy blocks the ray (ox, oy, oz) + t(dx, dy, dz) within maxDistance
+	public boolean occluded(double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance) {
+		return findOccluder(ox, oy, oz, dx, dy, dz, maxDistance) != null;
+	}
+
+	// Find the first object found blocking the ray within maxDistance, or null if none does
+	SceneObject findOccluder(double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance) {
+		if (objects.length == 0) {
+			return null;
+		}
+
+		double invDx = 1 / dx, invDy = 1 / dy, invDz = 1 / dz;
+
+		Traversal traversal = traversals.get();
+		int[] stack = traversal.stack;
+		double[] distances = traversal.distances;
+		int stackSize = 0;
+		stack[stackSize++] = 0;
+
+		int tests = 0;
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+			if (entryDistance(node, ox, oy, oz, invDx, invDy, invDz) > maxDistance) {
+				continue;
+			}
+
+			if (nodeCount[node] > 0) { // Leaf - any blocking object will do
+				int first = nodeFirst[node];
+				int count = nodeCount[node];
+				tests += count;
+				sphereBatch.intersect(first, count, ox, oy, oz, dx, dy, dz, distances);
+				for (int i = 0; i < count; i++) {
+					if (sphereBatch.isSphere(first + i) ? distances[i] <= maxDistance
+							: objects[first + i].occluded(ox, oy, oz, dx, dy, dz, maxDistance)) {
+						RenderStats.add(traversal.counts, RenderStats.Counter.INTERSECTION_TESTS, tests);
+						return objects[first + i];
+					}
+				}
+			} else {
+				stack[stackSize++] = nodeFirst[node] + 1;
+				stack[stackSize++] = nodeFirst[node];
+			}
+		}
+		RenderStats.add(traversal.counts, RenderStats.Counter.INTERSECTION_TESTS, tests);
+		return null;
+	}
+}
@@ -0,0 +1,73 @@
+package tick1;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+public class BumpMap {
+
+	// Dimensions of the map in texels
+	private final int width, height;
+
+	/*
+	 * Height differences from each texel to the one below it (u) and to the one on its right (v),
+	 * interleaved per texel in row-major order. The last row and column have no neighbour and hold 0.
+	 */
+	private final float[] gradients;
+
+	private BumpMap(int width, int height, float[] gradients) {
+		this.width = width;
+		this.height = height;
+		this.gradients = gradients;
+	}
+
+	// Load a bump map from an image, taking the height of each texel from its blue channel
+	public static BumpMap load(String filename) throws IOException {
+		BufferedImage inputImg = ImageIO.read(new File(filename));
+		if (inputImg == null) {
+			throw new IOException("unsupported image format: " + filename);
+		}
+		int width = inputImg.getWidth();
+		int height = inputImg.getHeight();
+		int[] rgb = inputImg.getRGB(0, 0, width, height, null, 0, width);
+
+		float[] gradients = new float[2 * width * height];
+		for (int row = 0; row < height - 1; row++) {
+			for (int col = 0; col < width - 1; col++) {
+				float h = texelHeight(rgb[row * width + col]);
+				gradients[2 * (row * width + col)] = h - texelHeight(rgb[(row + 1) * width + col]);
+				gradients[2 * (row * width + col) + 1] = h - texelHeight(rgb[row * width + col + 1]);
+			}
+		}
+		return new BumpMap(width, height, gradients);
+	}
+
+	private static float texelHeight(int rgb) {
+		return (float) (rgb & 0xFF) / 0xFF;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	// Height difference between texel (row, col) and the texel below it
+	public float getGradientU(int row, int col) {
+		return gradients[2 * (row * width + col)];
+	}
+
+	// Height difference between texel (row, col) and the texel to its right
+	public float getGradientV(int row, int col) {
+		return gradients[2 * (row * width + col) + 1];
+	}
+
+	// Approximate memory used by the map's data
+	public long getSizeInBytes() {
+		return 4L * gradients.length;
+	}
+}
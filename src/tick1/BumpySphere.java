@@ -1,39 +1,37 @@
 package tick1;
 
-import java.io.File;
 import java.io.IOException;
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 
 public class BumpySphere extends Sphere {
 
 	private float BUMP_FACTOR = 5f;
-	private float[][] bumpMap;
+	private String bumpMapFile;
+	private BumpMap bumpMap;
 	private int bumpMapHeight;
 	private int bumpMapWidth;
 
 	public BumpySphere(Vector3 position, double radius, ColorRGB colour, String bumpMapImg) {
 		super(position, radius, colour);
+		bumpMapFile = bumpMapImg;
 		try {
-			BufferedImage inputImg = ImageIO.read(new File(bumpMapImg));
-			bumpMapHeight = inputImg.getHeight();
-			bumpMapWidth = inputImg.getWidth();
-			bumpMap = new float[bumpMapHeight][bumpMapWidth];
-			for (int row = 0; row < bumpMapHeight; row++) {
-				for (int col = 0; col < bumpMapWidth; col++) {
-					float height = (float) (inputImg.getRGB(col, row) & 0xFF) / 0xFF;
-					bumpMap[row][col] = BUMP_FACTOR * height;
-				}
-			}
+			// Spheres using the same image share one copy of it
+			bumpMap = TextureCache.getShared().getBumpMap(bumpMapImg);
+			bumpMapHeight = bumpMap.getHeight();
+			bumpMapWidth = bumpMap.getWidth();
 		} catch (IOException e) {
 			System.err.println("Error creating bump map");
 			e.printStackTrace();
 		}
 	}
 
+	public String getBumpMapFile() {
+		return bumpMapFile;
+	}
+
 	// Get normal to surface at position
 	@Override
 	public Vector3 getNormalAt(Vector3 position) {
+		RenderStats.count(RenderStats.Counter.BUMP_NORMALS);
 
 		// Start with the normal for a standard sphere
 		Vector3 sphereNormal = position.subtract(this.position).normalised();
@@ -64,8 +62,8 @@ public class BumpySphere extends Sphere {
 
 		// Adjust the returned normal based off the bump map value
 		if (bumpMapUCoordinate < bumpMapHeight - 1 && bumpMapVCoordinate < bumpMapWidth - 1){
-			float B_u = bumpMap[bumpMapUCoordinate][bumpMapVCoordinate] - bumpMap[bumpMapUCoordinate + 1][bumpMapVCoordinate];
-			float B_v = bumpMap[bumpMapUCoordinate][bumpMapVCoordinate] - bumpMap[bumpMapUCoordinate][bumpMapVCoordinate + 1];
+			float B_u = BUMP_FACTOR * bumpMap.getGradientU(bumpMapUCoordinate, bumpMapVCoordinate);
+			float B_v = BUMP_FACTOR * bumpMap.getGradientV(bumpMapUCoordinate, bumpMapVCoordinate);
 			return (sphereNormal.add(sphereNormal.cross(P_v).scale(B_v)).add(sphereNormal.cross(P_u).scale(B_u))).normalised();
 		}
 		else return sphereNormal;
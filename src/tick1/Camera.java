@@ -30,6 +30,11 @@ public class Camera {
 		this.y_step_m = this.height_m / this.height_px;
 	}
 
+	// Get the width of a pixel on the image plane in world units
+	public double getPixelWidth() {
+		return x_step_m;
+	}
+
 	// Casts a ray through a supplied pixel coordinate
 	public Ray castRay(int x, int y) {
 		double x_pos = (x_step_m - width_m) / 2 + x * x_step_m;
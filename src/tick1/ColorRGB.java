@@ -2,65 +2,51 @@ package tick1;
 
 public class ColorRGB {
 
-	// Vector3 member field
-	private Vector3 v;
-	
-	// RGB Colour components
+	// RGB Colour components, stored directly so that colour arithmetic allocates a single object
 	public final double r;
 	public final double g;
 	public final double b;
 
 	public ColorRGB(double uniform) {
-		v = new Vector3(uniform);
-		r = v.x;
-		g = v.y;
-		b = v.z;
+		this(uniform, uniform, uniform);
 	}
 
 	public ColorRGB(double red, double green, double blue) {
-		v = new Vector3(red, green, blue);
-		r = v.x;
-		g = v.y;
-		b = v.z;
-	}
-
-	private ColorRGB(Vector3 vec) { // Private constructor
-		v = new Vector3(vec.x, vec.y, vec.z);
-		r = v.x;
-		g = v.y;
-		b = v.z;
+		r = red;
+		g = green;
+		b = blue;
 	}
 
 	/*
 	 *  Add, subtract, scale, equals methods as in Vector3
 	 */
 	public ColorRGB add(ColorRGB other) {
-		return new ColorRGB(v.add(other.v));
+		return new ColorRGB(r + other.r, g + other.g, b + other.b);
 	}
 
 	public ColorRGB add(double other) {
-		return new ColorRGB( v.add(other) );
+		return new ColorRGB(r + other, g + other, b + other);
 	}
 
 	public ColorRGB subtract(ColorRGB other) {
-		return new ColorRGB(v.subtract(other.v));
+		return new ColorRGB(r - other.r, g - other.g, b - other.b);
 	}
 	
 	public ColorRGB scale(double scalar) {
-		return new ColorRGB(v.scale(scalar));
+		return new ColorRGB(scalar * r, scalar * g, scalar * b);
 	}
 	
 	public ColorRGB scale(ColorRGB other) {
-		return new ColorRGB(v.scale(other.v));
+		return new ColorRGB(r * other.r, g * other.g, b * other.b);
 	}
 
-	public ColorRGB power(double e) { return new ColorRGB( v.power(e) ); }
+	public ColorRGB power(double e) { return new ColorRGB( Math.pow(r,e), Math.pow(g,e), Math.pow(b,e) ); }
 
-	public ColorRGB inv() { return new ColorRGB( v.inv() ); }
+	public ColorRGB inv() { return new ColorRGB( 1/r, 1/g, 1/b ); }
 
 
 	public boolean equals(ColorRGB other) {
-		return v.equals(other.v);
+		return r == other.r && g == other.g && b == other.b;
 	}
 	
 	/*
@@ -0,0 +1,254 @@
+package tick1;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/*
+ * Compact binary form of a loaded scene, so that repeated renders of the same scene file can skip XML
+ * parsing. The file records the size and modification time of the XML file it was compiled from and is
+ * ignored once they no longer match. It is read through a memory mapping.
+ *
+ * Layout (big-endian): magic, version, source length, source modification time, ambient light,
+ * light count, lights, object count, objects. Each object starts with a type byte.
+ */
+public class CompiledScene {
+
+	private static final int MAGIC = 0x52545343; // "RTSC"
+	private static final int VERSION = 1;
+
+	// Object record types
+	private static final byte SPHERE = 0;
+	private static final byte BUMPY_SPHERE = 1;
+	private static final byte PLANE = 2;
+
+	// Name of the compiled file for source within a cache directory
+	public static String getCacheName(File source) {
+		String path;
+		try {
+			path = source.getCanonicalPath();
+		} catch (IOException e) {
+			path = source.getAbsolutePath();
+		}
+		return source.getName() + "-" + Integer.toHexString(path.hashCode()) + ".scene";
+	}
+
+	// Write scene, loaded from source, to target
+	public static void write(Scene scene, File source, File target) throws IOException {
+		File temporary = new File(target.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(source.length());
+			out.writeLong(source.lastModified());
+			writeScene(out, scene);
+		} catch (IOException e) {
+			temporary.delete();
+			throw e;
+		}
+		Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	// Encode scene in the compiled form without the file header, for example to send to another process
+	public static byte[] toBytes(Scene scene) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			writeScene(out, scene);
+		}
+		return bytes.toByteArray();
+	}
+
+	// Decode a scene encoded by toBytes
+	public static Scene fromBytes(byte[] bytes) throws IOException {
+		try {
+			return readScene(ByteBuffer.wrap(bytes), "scene data", true);
+		} catch (RuntimeException e) { // Truncated or corrupt data
+			throw new IOException("corrupt scene data: " + e);
+		}
+	}
+
+	// Lights and objects of scene, following the header
+	private static void writeScene(DataOutputStream out, Scene scene) throws IOException {
+		writeColour(out, scene.getAmbientLighting());
+
+		List<PointLight> lights = scene.getPointLights();
+		out.writeInt(lights.size());
+		for (PointLight light : lights) {
+			writeLight(out, light);
+		}
+
+		List<SceneObject> objects = scene.getObjects();
+		out.writeInt(objects.size());
+		for (SceneObject object : objects) {
+			writeObject(out, object);
+		}
+	}
+
+	// Encode a single light as it appears in the compiled form, for example to compare lights by value
+	static byte[] encodeLight(PointLight light) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			writeLight(out, light);
+		}
+		return bytes.toByteArray();
+	}
+
+	// Encode a single object as it appears in the compiled form
+	static byte[] encodeObject(SceneObject object) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			writeObject(out, object);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void writeLight(DataOutputStream out, PointLight light) throws IOException {
+		writeVector(out, light.getPosition());
+		writeColour(out, light.getColour());
+		out.writeDouble(light.getIntensity());
+	}
+
+	private static void writeObject(DataOutputStream out, SceneObject object) throws IOException {
+		if (object instanceof BumpySphere) {
+			BumpySphere sphere = (BumpySphere) object;
+			out.writeByte(BUMPY_SPHERE);
+			writeVector(out, sphere.getPosition());
+			out.writeDouble(sphere.getRadius());
+			writeColour(out, sphere.getColour());
+			writeString(out, sphere.getBumpMapFile());
+		} else if (object instanceof Sphere) {
+			Sphere sphere = (Sphere) object;
+			out.writeByte(SPHERE);
+			writeVector(out, sphere.getPosition());
+			out.writeDouble(sphere.getRadius());
+			writeMaterial(out, sphere);
+		} else if (object instanceof Plane) {
+			Plane plane = (Plane) object;
+			out.writeByte(PLANE);
+			writeVector(out, plane.getPoint());
+			writeVector(out, plane.getNormal());
+			writeMaterial(out, plane);
+		} else {
+			throw new IOException("cannot compile object of type " + object.getClass().getSimpleName());
+		}
+	}
+
+	// Read the scene compiled from source, or return null if compiled is missing or out of date
+	public static Scene read(File source, File compiled) throws IOException {
+		return read(source, compiled, true);
+	}
+
+	// Read the scene as read does, building its acceleration structure only if accelerated is set
+	public static Scene read(File source, File compiled, boolean accelerated) throws IOException {
+		if (!compiled.isFile()) {
+			return null;
+		}
+
+		try (FileChannel channel = FileChannel.open(compiled.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+				return null;
+			}
+			if (in.getLong() != source.length() || in.getLong() != source.lastModified()) {
+				return null;
+			}
+			return readScene(in, compiled.toString(), accelerated);
+		} catch (RuntimeException e) { // Truncated or corrupt file
+			throw new IOException("corrupt compiled scene " + compiled + ": " + e);
+		}
+	}
+
+	// Read the lights and objects following the header, from origin (named in errors), building the
+	// scene's acceleration structure if accelerated is set
+	private static Scene readScene(ByteBuffer in, String origin, boolean accelerated) throws IOException {
+		Scene scene = new Scene();
+		scene.setAmbientLight(readColour(in));
+
+		int lightCount = in.getInt();
+		for (int i = 0; i < lightCount; i++) {
+			scene.addPointLight(new PointLight(readVector(in), readColour(in), in.getDouble()));
+		}
+
+		int objectCount = in.getInt();
+		for (int i = 0; i < objectCount; i++) {
+			byte type = in.get();
+			switch (type) {
+			case SPHERE:
+				scene.addObject(new Sphere(readVector(in), in.getDouble(), readColour(in), in.getDouble(),
+						in.getDouble(), in.getDouble(), in.getDouble()));
+				break;
+			case BUMPY_SPHERE:
+				scene.addObject(new BumpySphere(readVector(in), in.getDouble(), readColour(in), readString(in)));
+				break;
+			case PLANE:
+				scene.addObject(new Plane(readVector(in), readVector(in), readColour(in), in.getDouble(),
+						in.getDouble(), in.getDouble(), in.getDouble()));
+				break;
+			default:
+				throw new IOException("unknown object type " + type + " in " + origin);
+			}
+		}
+
+		if (accelerated) {
+			scene.buildAccelerationStructure();
+		}
+		return scene;
+	}
+
+	private static void writeVector(DataOutputStream out, Vector3 v) throws IOException {
+		out.writeDouble(v.x);
+		out.writeDouble(v.y);
+		out.writeDouble(v.z);
+	}
+
+	private static void writeColour(DataOutputStream out, ColorRGB c) throws IOException {
+		out.writeDouble(c.r);
+		out.writeDouble(c.g);
+		out.writeDouble(c.b);
+	}
+
+	// Colour, Phong coefficients and reflectivity, in the order the constructors take them
+	private static void writeMaterial(DataOutputStream out, SceneObject object) throws IOException {
+		writeColour(out, object.getColour());
+		out.writeDouble(object.getPhong_kD());
+		out.writeDouble(object.getPhong_kS());
+		out.writeDouble(object.getPhong_alpha());
+		out.writeDouble(object.getReflectivity());
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static Vector3 readVector(ByteBuffer in) {
+		double x = in.getDouble();
+		double y = in.getDouble();
+		double z = in.getDouble();
+		return new Vector3(x, y, z);
+	}
+
+	private static ColorRGB readColour(ByteBuffer in) {
+		double r = in.getDouble();
+		double g = in.getDouble();
+		double b = in.getDouble();
+		return new ColorRGB(r, g, b);
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,11 @@
+package tick1;
+
+import java.io.IOException;
+
+// Receives the frames of a Sequence as they are completed
+public interface FrameListener {
+
+	// Called with the linear image of each frame and the counts of the work done to render it, possibly
+	// from several threads at once and not in frame order
+	void frame(int frame, HdrImage image, RenderStats stats) throws IOException;
+}
@@ -0,0 +1,49 @@
+package tick1;
+
+/*
+ * Low-discrepancy sampler based on the Halton sequence. Aperture positions use bases 2 and 3 indexed
+ * by sample number, and set points use bases 2, 3 and 5 indexed by point number. Each pixel and each
+ * set is given its own random toroidal shift (Cranley-Patterson rotation) so that neighbouring pixels
+ * and shading points do not share a pattern.
+ */
+public class HaltonSampler extends RandomSampler {
+
+	// Prime bases for each dimension
+	private static final int[] BASES = { 2, 3, 5 };
+
+	public HaltonSampler(long seed) {
+		super(seed);
+	}
+
+	@Override
+	public void startSample(int x, int y, int sample, int sampleCount) {
+		super.startSample(x, y, sample, sampleCount);
+		long pixelKey = getPixelKey();
+		apertureX = shift(radicalInverse(2, sample), mix(pixelKey));
+		apertureY = shift(radicalInverse(3, sample), mix(pixelKey + GOLDEN_GAMMA));
+	}
+
+	@Override
+	public double getSetPoint(int index, int dimension) {
+		return shift(radicalInverse(BASES[dimension], index), mix(setKey + dimension));
+	}
+
+	// Reflect the digits of index in the given base about the radix point
+	private static double radicalInverse(int base, int index) {
+		double inverseBase = 1.0 / base;
+		double scale = inverseBase;
+		double result = 0;
+		while (index > 0) {
+			result += (index % base) * scale;
+			index /= base;
+			scale *= inverseBase;
+		}
+		return result;
+	}
+
+	// Rotate value by a random amount derived from key, wrapping around [0, 1)
+	private static double shift(double value, long key) {
+		double shifted = value + toUnit(key);
+		return shifted >= 1 ? shifted - 1 : shifted;
+	}
+}
@@ -0,0 +1,149 @@
+package tick1;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Linear radiance of a rendered image as three floats (red, green, blue) per pixel, before any tone
+ * mapping. It can be stored as a Portable Float Map (.pfm) and tone mapped later by a Tonemapper, so the
+ * image can be re-graded without tracing the scene again.
+ */
+public class HdrImage {
+
+	// Longest header read from a PFM, far more than its three fields need
+	private static final int MAX_HEADER_LENGTH = 256;
+
+	// The width and height of the image in pixels
+	private final int width, height;
+
+	// Linear colour, row by row from the top left
+	private final float[] pixels;
+
+	public HdrImage(int width, int height) {
+		this.width = width;
+		this.height = height;
+		pixels = new float[3 * width * height];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public void setPixel(int x, int y, double red, double green, double blue) {
+		int pixel = 3 * (y * width + x);
+		pixels[pixel] = (float) red;
+		pixels[pixel + 1] = (float) green;
+		pixels[pixel + 2] = (float) blue;
+	}
+
+	public ColorRGB getPixel(int x, int y) {
+		int pixel = 3 * (y * width + x);
+		return new ColorRGB(pixels[pixel], pixels[pixel + 1], pixels[pixel + 2]);
+	}
+
+	// Copy the pixels of source from (x0, y0) up to (x1, y1) to the same place in this image, of the same size
+	void copyRegion(HdrImage source, int x0, int y0, int x1, int y1) {
+		for (int y = y0; y < y1; y++) {
+			int start = 3 * (y * width + x0);
+			System.arraycopy(source.pixels, start, pixels, start, 3 * (x1 - x0));
+		}
+	}
+
+	// Get one channel (0 red, 1 green, 2 blue) of the pixel with index y * width + x
+	float getChannel(int pixel, int channel) {
+		return pixels[3 * pixel + channel];
+	}
+
+	/*
+	 * Write the image as a little-endian colour PFM, whose rows run from the bottom up. Rows are written
+	 * one at a time through a buffer of one row, so however large the image no copy of it is made.
+	 */
+	public void writePfm(File file) throws IOException {
+		byte[] header = ("PF\n" + width + " " + height + "\n-1.0\n").getBytes(StandardCharsets.US_ASCII);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			writeFully(channel, ByteBuffer.wrap(header));
+			ByteBuffer row = ByteBuffer.allocate(12 * width).order(ByteOrder.LITTLE_ENDIAN);
+			for (int y = height - 1; y >= 0; y--) {
+				row.clear();
+				row.asFloatBuffer().put(pixels, 3 * y * width, 3 * width);
+				writeFully(channel, row);
+			}
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	// Read a colour PFM of either byte order, a row at a time as it was written
+	public static HdrImage readPfm(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			// The header is a few short fields, so is read from the start of the file alone
+			ByteBuffer in = ByteBuffer.allocate((int) Math.min(channel.size(), MAX_HEADER_LENGTH));
+			readFully(channel, in);
+			in.flip();
+			if (!"PF".equals(readToken(in))) {
+				throw new IOException("not a colour PFM: " + file);
+			}
+			int width = Integer.parseInt(readToken(in));
+			int height = Integer.parseInt(readToken(in));
+			double scale = Double.parseDouble(readToken(in));
+			ByteOrder order = scale < 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+			if (width <= 0 || height <= 0 || 3L * width * height > Integer.MAX_VALUE) {
+				throw new IOException("unsupported PFM size " + width + "x" + height + ": " + file);
+			}
+			if (channel.size() - in.position() < 12L * width * height) {
+				throw new IOException("truncated PFM: " + file);
+			}
+
+			HdrImage image = new HdrImage(width, height);
+			channel.position(in.position());
+			ByteBuffer row = ByteBuffer.allocate(12 * width).order(order);
+			for (int y = height - 1; y >= 0; y--) {
+				row.clear();
+				readFully(channel, row);
+				row.flip();
+				row.asFloatBuffer().get(image.pixels, 3 * y * width, 3 * width);
+			}
+			return image;
+		} catch (NumberFormatException e) {
+			throw new IOException("corrupt PFM header in " + file + ": " + e.getMessage());
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("unexpected end of PFM");
+			}
+		}
+	}
+
+	// Read a header field, consuming the single whitespace character that ends it
+	private static String readToken(ByteBuffer in) throws IOException {
+		StringBuilder token = new StringBuilder();
+		while (in.hasRemaining()) {
+			char c = (char) in.get();
+			if (Character.isWhitespace(c)) {
+				if (token.length() > 0) {
+					return token.toString();
+				}
+			} else {
+				token.append(c);
+			}
+		}
+		throw new IOException("truncated PFM header");
+	}
+}
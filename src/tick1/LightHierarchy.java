@@ -0,0 +1,175 @@
+package tick1;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * Binary tree over a scene's point lights for choosing lights in proportion to their estimated
+ * illumination at a shading point. Each node stores the bounds and total power of the lights below it.
+ * A light is sampled by descending from the root, choosing each child with probability proportional to
+ * its power over the squared distance to its cluster, so the cost of a choice grows only with the
+ * depth of the tree rather than with the number of lights.
+ */
+public class LightHierarchy {
+
+	private final PointLight[] lights;
+
+	// Flattened nodes: bounds of the light positions as (minX, minY, minZ, maxX, maxY, maxZ), total
+	// power, parent, and either the light (leaf) or -1 with the left child given by nodeLeft and the
+	// right child following it
+	private final double[] nodeBounds;
+	private final double[] nodePower;
+	private final int[] nodeParent;
+	private final int[] nodeLight;
+	private final int[] nodeLeft;
+	private int nodesUsed;
+
+	// Leaf node holding each light
+	private final int[] lightNodes;
+
+	public LightHierarchy(List<PointLight> pointLights) {
+		int n = pointLights.size();
+		lights = pointLights.toArray(new PointLight[n]);
+
+		int maxNodes = Math.max(1, 2 * n - 1);
+		nodeBounds = new double[6 * maxNodes];
+		nodePower = new double[maxNodes];
+		nodeParent = new int[maxNodes];
+		nodeLight = new int[maxNodes];
+		nodeLeft = new int[maxNodes];
+		lightNodes = new int[n];
+		nodeParent[0] = -1;
+		nodesUsed = 1;
+		if (n > 0) {
+			Integer[] order = new Integer[n];
+			for (int i = 0; i < n; i++) {
+				order[i] = i;
+			}
+			build(0, order, 0, n);
+		}
+	}
+
+	public int size() {
+		return lights.length;
+	}
+
+	public PointLight getLight(int index) {
+		return lights[index];
+	}
+
+	// Recursively build the subtree rooted at node over order[first, first + count), splitting at the
+	// median along the longest axis of the lights' bounds
+	private void build(int node, Integer[] order, int first, int count) {
+		Arrays.fill(nodeBounds, 6 * node, 6 * node + 3, Double.POSITIVE_INFINITY);
+		Arrays.fill(nodeBounds, 6 * node + 3, 6 * node + 6, Double.NEGATIVE_INFINITY);
+		double power = 0;
+		for (int i = first; i < first + count; i++) {
+			Vector3 position = lights[order[i]].getPosition();
+			double[] coordinates = { position.x, position.y, position.z };
+			for (int axis = 0; axis < 3; axis++) {
+				nodeBounds[6 * node + axis] = Math.min(nodeBounds[6 * node + axis], coordinates[axis]);
+				nodeBounds[6 * node + 3 + axis] = Math.max(nodeBounds[6 * node + 3 + axis], coordinates[axis]);
+			}
+			power += getPower(lights[order[i]]);
+		}
+		nodePower[node] = power;
+
+		if (count == 1) {
+			nodeLight[node] = order[first];
+			lightNodes[order[first]] = node;
+			return;
+		}
+
+		int axis = 0;
+		for (int a = 1; a < 3; a++) {
+			if (getExtent(node, a) > getExtent(node, axis)) {
+				axis = a;
+			}
+		}
+		final int splitAxis = axis;
+		Arrays.sort(order, first, first + count,
+				Comparator.comparingDouble(light -> getCoordinate(lights[light].getPosition(), splitAxis)));
+
+		int left = nodesUsed;
+		nodesUsed += 2;
+		nodeLight[node] = -1;
+		nodeLeft[node] = left;
+		nodeParent[left] = nodeParent[left + 1] = node;
+		build(left, order, first, count / 2);
+		build(left + 1, order, first + count / 2, count - count / 2);
+	}
+
+	/*
+	 * Choose a light for shading point P using u in [0, 1), descending the tree and rescaling u into the
+	 * chosen child's share at each step.
+	 */
+	public int sample(Vector3 P, double u) {
+		int node = 0;
+		while (nodeLight[node] < 0) {
+			int left = nodeLeft[node];
+			double leftProbability = getLeftProbability(left, P);
+			if (u < leftProbability) {
+				node = left;
+				u /= leftProbability;
+			} else {
+				node = left + 1;
+				u = (u - leftProbability) / (1 - leftProbability);
+			}
+			u = Math.min(u, Math.nextDown(1.0)); // Guard against rounding up to 1
+		}
+		return nodeLight[node];
+	}
+
+	// Probability that sample chooses light index for shading point P
+	public double getProbability(Vector3 P, int index) {
+		double probability = 1;
+		int node = lightNodes[index];
+		while (nodeParent[node] >= 0) {
+			int left = nodeLeft[nodeParent[node]];
+			double leftProbability = getLeftProbability(left, P);
+			probability *= node == left ? leftProbability : 1 - leftProbability;
+			node = nodeParent[node];
+		}
+		return probability;
+	}
+
+	// Probability of choosing the left of two sibling nodes, in proportion to their importance at P
+	private double getLeftProbability(int left, Vector3 P) {
+		double leftImportance = getImportance(left, P);
+		double rightImportance = getImportance(left + 1, P);
+		double total = leftImportance + rightImportance;
+		return total > 0 ? leftImportance / total : 0.5;
+	}
+
+	/*
+	 * Estimate the illumination a node's lights give P: their total power over the squared distance to the
+	 * centre of their bounds, where the distance is at least the bounds' half-diagonal so that a cluster
+	 * surrounding P is not overestimated
+	 */
+	private double getImportance(int node, Vector3 P) {
+		double distanceSquared = 0, radiusSquared = 0;
+		double[] point = { P.x, P.y, P.z };
+		for (int axis = 0; axis < 3; axis++) {
+			double centre = 0.5 * (nodeBounds[6 * node + axis] + nodeBounds[6 * node + 3 + axis]);
+			double halfExtent = 0.5 * getExtent(node, axis);
+			distanceSquared += (point[axis] - centre) * (point[axis] - centre);
+			radiusSquared += halfExtent * halfExtent;
+		}
+		return nodePower[node] / Math.max(Math.max(distanceSquared, radiusSquared), Double.MIN_NORMAL);
+	}
+
+	// Power of a light, as its luminance at unit distance
+	private static double getPower(PointLight light) {
+		ColorRGB colour = light.getIlluminationAt(1);
+		return 0.2126 * colour.r + 0.7152 * colour.g + 0.0722 * colour.b;
+	}
+
+	private double getExtent(int node, int axis) {
+		return nodeBounds[6 * node + 3 + axis] - nodeBounds[6 * node + axis];
+	}
+
+	private static double getCoordinate(Vector3 v, int axis) {
+		return axis == 0 ? v.x : axis == 1 ? v.y : v.z;
+	}
+}
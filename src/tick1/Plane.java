@@ -14,6 +14,14 @@ public class Plane extends SceneObject {
 	// The normal of the plane
 	private Vector3 normal;
 
+	public Vector3 getPoint() {
+		return point;
+	}
+
+	public Vector3 getNormal() {
+		return normal;
+	}
+
 	public Plane(Vector3 point, Vector3 normal, ColorRGB colour) {
 		this.point = point;
 		this.normal = normal;
@@ -42,23 +50,40 @@ public class Plane extends SceneObject {
 		// Get ray parameters
 		Vector3 O = ray.getOrigin();
 		Vector3 D = ray.getDirection();
-		
-		// Get plane parameters
-		Vector3 Q = this.point;
-		Vector3 N = this.normal;
 
 		// Calculate ray parameter s at intersection
-		double s = (Q.subtract(O)).dot(N) / D.dot(N);
+		double s = getRayParameter(O.x, O.y, O.z, D.x, D.y, D.z);
 
 		// If intersection occurs behind camera, return empty RaycastHit
 		if (s <= 0) {
 			return new RaycastHit();
 		}
-		// Otherwise return RaycastHit describing point of intersection
+		// Otherwise return RaycastHit describing point of intersection, calculated when first needed
 		else {
-			return new RaycastHit(this, s, ray.evaluateAt(s), N);
+			return new RaycastHit(this, s, ray);
 		}
-}
+	}
+
+	// Distance to the intersection in front of the ray, or infinity if there is none
+	@Override
+	public double intersectionDistance(double ox, double oy, double oz, double dx, double dy, double dz) {
+		double s = getRayParameter(ox, oy, oz, dx, dy, dz);
+		return s > 0 ? s : Double.POSITIVE_INFINITY;
+	}
+
+	// Ray parameter at which the ray with origin (ox, oy, oz) and direction (dx, dy, dz) meets the plane
+	private double getRayParameter(double ox, double oy, double oz, double dx, double dy, double dz) {
+		Vector3 Q = this.point;
+		Vector3 N = this.normal;
+		return ((Q.x - ox) * N.x + (Q.y - oy) * N.y + (Q.z - oz) * N.z) / (dx * N.x + dy * N.y + dz * N.z);
+	}
+
+	// Determine whether a ray hits the plane within maxDistance, without building a RaycastHit
+	@Override
+	public boolean occluded(double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance) {
+		double s = getRayParameter(ox, oy, oz, dx, dy, dz);
+		return s > 0 && s <= maxDistance;
+	}
 
 	// Get normal to the plane
 	@Override
@@ -27,6 +27,11 @@ public class PointLight {
 
 	// Get colour of light at a certain distance away
 	public ColorRGB getIlluminationAt(double distance) {
-		return colour.scale(intensity / (Math.PI * 4 * Math.pow(distance, 2)));
+		return colour.scale(getFalloffAt(distance));
+	}
+
+	// Get the factor the light's colour is scaled by at a certain distance away
+	public double getFalloffAt(double distance) {
+		return intensity / (Math.PI * 4 * Math.pow(distance, 2));
 	}
 }
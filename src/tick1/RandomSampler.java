@@ -0,0 +1,108 @@
+package tick1;
+
+/*
+ * Pseudo-random sampler based on the SplitMix64 generator. The sequence for each sample is derived
+ * only from the seed, the pixel and the sample index, so renders are reproducible regardless of the
+ * order or thread in which pixels are traced. Aperture and set points are independent uniform values;
+ * subclasses lay them out more evenly. Set points are hashed from the set's key rather than drawn from
+ * the stream, so they may be requested in any order or not at all.
+ */
+public class RandomSampler implements Sampler {
+
+	// Increment between successive states (odd, derived from the golden ratio)
+	protected static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	protected final long seed;
+	private long state;
+
+	// Current pixel and sample, and its position on the aperture
+	protected int x, y, sample, sampleCount;
+	protected double apertureX, apertureY;
+
+	// Number of points in the current set, and a random key used to scramble it
+	protected int setCount;
+	protected long setKey;
+
+	public RandomSampler(long seed) {
+		this.seed = seed;
+		this.state = mix(seed);
+	}
+
+	@Override
+	public void startSample(int x, int y, int sample, int sampleCount) {
+		this.x = x;
+		this.y = y;
+		this.sample = sample;
+		this.sampleCount = sampleCount;
+		state = mix(getPixelKey() + sample * GOLDEN_GAMMA);
+		apertureX = next();
+		apertureY = next();
+	}
+
+	@Override
+	public double next() {
+		return toUnit(nextLong());
+	}
+
+	protected long nextLong() {
+		state += GOLDEN_GAMMA;
+		return mix(state);
+	}
+
+	@Override
+	public double getApertureX() {
+		return apertureX;
+	}
+
+	@Override
+	public double getApertureY() {
+		return apertureY;
+	}
+
+	@Override
+	public void startSet(int count) {
+		setCount = count;
+		setKey = nextLong();
+	}
+
+	@Override
+	public double getSetPoint(int index, int dimension) {
+		return getSetValue(index, dimension);
+	}
+
+	// An independent value for a coordinate of a point of the current set, derived only from its key
+	protected double getSetValue(int index, int dimension) {
+		return toUnit(mix(setKey + (3L * index + dimension + 1) * GOLDEN_GAMMA));
+	}
+
+	@Override
+	public long getPosition() {
+		return state;
+	}
+
+	@Override
+	public void resume(int x, int y, int sample, int sampleCount, long position) {
+		this.x = x;
+		this.y = y;
+		this.sample = sample;
+		this.sampleCount = sampleCount;
+		state = position;
+	}
+
+	// A random value shared by every sample of the current pixel, for scrambling its aperture positions
+	protected long getPixelKey() {
+		return mix(mix(seed + x * GOLDEN_GAMMA) + y * GOLDEN_GAMMA);
+	}
+
+	// SplitMix64 finalising function, which scrambles the bits of z
+	protected static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	// Convert the top 53 bits of a random long into a double in [0, 1)
+	protected static double toUnit(long bits) {
+		return (bits >>> 11) * 0x1.0p-53;
+	}
+}
@@ -0,0 +1,62 @@
+package tick1;
+
+/*
+ * A bundle of coherent rays (such as the depth-of-field rays of one pixel) traced through the scene
+ * together. Origins and reciprocal directions are kept in primitive arrays for traversal, alongside
+ * the nearest distance and object found so far for each ray.
+ */
+public class RayPacket {
+
+	private final Ray[] rays;
+	private int size;
+
+	// Ray origins and reciprocal directions, one entry per ray
+	final double[] originX, originY, originZ;
+	final double[] inverseX, inverseY, inverseZ;
+
+	// Nearest hit distance and object index found so far for each ray during traversal
+	final double[] closestDistance;
+	final int[] closestObject;
+
+	public RayPacket(int capacity) {
+		rays = new Ray[capacity];
+		originX = new double[capacity];
+		originY = new double[capacity];
+		originZ = new double[capacity];
+		inverseX = new double[capacity];
+		inverseY = new double[capacity];
+		inverseZ = new double[capacity];
+		closestDistance = new double[capacity];
+		closestObject = new int[capacity];
+	}
+
+	// Remove every ray from the packet
+	public void clear() {
+		size = 0;
+	}
+
+	public void add(Ray ray) {
+		Vector3 O = ray.getOrigin();
+		Vector3 D = ray.getDirection();
+		rays[size] = ray;
+		originX[size] = O.x;
+		originY[size] = O.y;
+		originZ[size] = O.z;
+		inverseX[size] = 1 / D.x;
+		inverseY[size] = 1 / D.y;
+		inverseZ[size] = 1 / D.z;
+		size++;
+	}
+
+	public Ray getRay(int i) {
+		return rays[i];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return rays.length;
+	}
+}
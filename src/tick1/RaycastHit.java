@@ -14,6 +14,9 @@ public class RaycastHit {
 	// The normal of the object at the location hit by the ray
 	private Vector3 normal;
 
+	// The ray that hit the object, from which the location and normal are calculated when first needed
+	private Ray ray;
+
 	public RaycastHit() {
 		this.distance = Double.POSITIVE_INFINITY;
 	}
@@ -25,15 +28,33 @@ public class RaycastHit {
 		this.normal = normal;
 	}
 
+	/*
+	 * Describe a hit by ray at distance without yet calculating its location or normal, which for
+	 * candidates that turn out not to be the closest would be wasted
+	 */
+	public RaycastHit(SceneObject objectHit, double distance, Ray ray) {
+		this.distance = distance;
+		this.objectHit = objectHit;
+		this.ray = ray;
+	}
+
 	public SceneObject getObjectHit() {
 		return objectHit;
 	}
 
 	public Vector3 getLocation() {
+		if (location == null && ray != null) {
+			Vector3 O = ray.getOrigin();
+			Vector3 D = ray.getDirection();
+			location = new Vector3(O.x + distance * D.x, O.y + distance * D.y, O.z + distance * D.z);
+		}
 		return location;
 	}
 
 	public Vector3 getNormal() {
+		if (normal == null && ray != null) {
+			normal = objectHit.getNormalAt(getLocation());
+		}
 		return normal;
 	}
 
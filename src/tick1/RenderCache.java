@@ -0,0 +1,145 @@
+package tick1;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/*
+ * Rendered images stored on disk by the content of what was rendered, so that rendering an unchanged
+ * scene with unchanged settings can be skipped. The key is a SHA-256 hash of the scene in its compiled
+ * form, a digest of the contents of each bump map it uses and the renderer's settings, so renaming or
+ * moving a scene file still finds its render while any edit that could change a pixel misses. Images
+ * are stored in linear form (PFM), leaving tone mapping free to change.
+ *
+ * When the files stored exceed the disk budget, the least recently used are deleted, judged by their
+ * modification times, which are updated on every hit. The newest file is always kept.
+ */
+public class RenderCache {
+
+	// Default disk budget in bytes
+	public static final long DEFAULT_BUDGET = 1L << 30;
+
+	// Changed whenever the meaning of a key changes, to orphan renders stored under the old one
+	private static final int VERSION = 2;
+
+	private static final String SUFFIX = ".pfm";
+
+	private final File directory;
+	private final long budget;
+
+	public RenderCache(File directory, long budget) {
+		this.directory = directory;
+		this.budget = budget;
+	}
+
+	// Compute the key of the image renderer would produce from scene
+	public static String getKey(Scene scene, Renderer renderer) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 unavailable", e); // Required of every Java platform
+		}
+
+		try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), digest))) {
+			out.writeInt(VERSION);
+			byte[] sceneData = CompiledScene.toBytes(scene);
+			out.writeInt(sceneData.length);
+			out.write(sceneData);
+
+			// The compiled scene names its bump maps, so add a digest of what each distinct one holds
+			SortedSet<String> bumpMaps = new TreeSet<String>();
+			for (SceneObject object : scene.getObjects()) {
+				if (object instanceof BumpySphere) {
+					bumpMaps.add(TextureCache.getCanonicalPath(((BumpySphere) object).getBumpMapFile()));
+				}
+			}
+			out.writeInt(bumpMaps.size());
+			for (String path : bumpMaps) {
+				byte[] mapDigest = TextureCache.getShared().getDigest(path);
+				out.writeUTF(path);
+				out.writeBoolean(mapDigest != null);
+				if (mapDigest != null) {
+					out.write(mapDigest);
+				}
+			}
+			out.writeUTF(renderer.getSettings());
+		}
+
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest()) {
+			key.append(String.format("%02x", b));
+		}
+		return key.toString();
+	}
+
+	// Get the image stored under key, or null if there is none
+	public HdrImage get(String key) {
+		File file = getFile(key);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			HdrImage image = HdrImage.readPfm(file);
+			file.setLastModified(System.currentTimeMillis());
+			return image;
+		} catch (IOException e) {
+			System.err.println("Discarding unreadable cached render: " + e.getMessage());
+			file.delete();
+			return null;
+		}
+	}
+
+	// Store image under key, then evict the least recently used images beyond the budget
+	public void put(String key, HdrImage image) throws IOException {
+		directory.mkdirs();
+		File file = getFile(key);
+		File temporary = new File(directory, key + ".tmp");
+		try {
+			image.writePfm(temporary);
+		} catch (IOException e) {
+			temporary.delete();
+			throw e;
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		evict();
+	}
+
+	// Delete least recently used images until within budget, always keeping the most recent one
+	private void evict() {
+		File[] files = directory.listFiles((parent, name) -> name.endsWith(SUFFIX));
+		if (files == null) {
+			return;
+		}
+		long[] modified = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		long bytesUsed = 0;
+		for (int i = 0; i < files.length; i++) {
+			modified[i] = files[i].lastModified(); // Read once, as another process may touch them meanwhile
+			order[i] = i;
+			bytesUsed += files[i].length();
+		}
+		Arrays.sort(order, Comparator.comparingLong(i -> modified[i]));
+		for (int i = 0; i < order.length - 1 && bytesUsed > budget; i++) {
+			File eldest = files[order[i]];
+			long size = eldest.length();
+			if (eldest.delete()) {
+				bytesUsed -= size;
+			}
+		}
+	}
+
+	private File getFile(String key) {
+		return new File(directory, key + SUFFIX);
+	}
+}
@@ -0,0 +1,258 @@
+package tick1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Renders an image by handing its tiles out over TCP to worker processes (started with --worker
+ * HOST:PORT), merging the pixel sums they return into one accumulation buffer. Every worker is sent the
+ * rendering options and the scene in compiled form, then one tile at a time. A tile whose worker
+ * disconnects or stops responding before returning it goes back in the queue for another worker. Since
+ * each pixel's samples depend only on the seed, the image is the same as one rendered in one process.
+ *
+ * Protocol (big-endian, as DataOutputStream): the coordinator sends the magic number, version, number of
+ * option strings and the strings, then the length of the scene data and the data. It then repeatedly
+ * sends a tile as (tileX, tileY), and the worker answers with its pixels as written by
+ * AccumulationBuffer.writeRegion, until the coordinator sends FINISHED in place of a tile.
+ */
+public class RenderCoordinator {
+
+	static final int MAGIC = 0x52544344; // "RTCD"
+	static final int VERSION = 1;
+
+	// Sent in place of a tile when no tiles are left
+	static final int FINISHED = -1;
+
+	// Bytes per pixel in a returned tile: sample count and five sums
+	static final int PIXEL_BYTES = 4 + 5 * 4;
+
+	// Time after which a worker that has not returned its tile is presumed dead
+	private static final int WORKER_TIMEOUT_MS = 10 * 60 * 1000;
+
+	// Time allowed for workers to be told there are no more tiles once the image is complete
+	private static final int FINISH_TIMEOUT_MS = 10 * 1000;
+
+	private final List<String> options;
+	private final Renderer renderer;
+	private final byte[] sceneData;
+
+	// Socket workers connect to, from listen until render completes
+	private ServerSocket server;
+
+	// Tiles, numbered row by row, not yet assigned to a worker
+	private final BlockingQueue<Integer> tiles = new LinkedBlockingQueue<Integer>();
+	private int tilesRemaining;
+	private AccumulationBuffer buffer;
+
+	// Every worker connection accepted, and the thread serving each
+	private final List<Socket> connections = new ArrayList<Socket>();
+	private final List<Thread> connectionThreads = new ArrayList<Thread>();
+
+	// Render scene with renderer, which workers recreate from options
+	public RenderCoordinator(Scene scene, List<String> options, Renderer renderer) throws IOException {
+		this.options = options;
+		this.renderer = renderer;
+		this.sceneData = CompiledScene.toBytes(scene);
+	}
+
+	// Listen for workers on port, or on any free port if it is 0, returning the port listened on
+	public int listen(int port) throws IOException {
+		server = new ServerSocket(port);
+		return server.getLocalPort();
+	}
+
+	// Listen for workers on port and render, as listen and then render
+	public HdrImage render(int port) throws IOException {
+		listen(port);
+		return render();
+	}
+
+	/*
+	 * Hand out tiles to the workers connecting to the port given to listen, returning the image once every
+	 * tile has been rendered and every worker has been told so
+	 */
+	public HdrImage render() throws IOException {
+		if (server == null) {
+			throw new IllegalStateException("not listening for workers");
+		}
+		buffer = new AccumulationBuffer(renderer.getWidth(), renderer.getHeight());
+		tilesRemaining = renderer.getTilesX() * renderer.getTilesY();
+		for (int tile = 0; tile < tilesRemaining; tile++) {
+			tiles.add(tile);
+		}
+
+		Thread acceptor;
+		try (ServerSocket server = this.server) {
+			System.out.println("Waiting for workers on port " + server.getLocalPort());
+			acceptor = new Thread(() -> acceptWorkers(server), "coordinator");
+			acceptor.setDaemon(true);
+			acceptor.start();
+
+			synchronized (this) {
+				while (tilesRemaining > 0) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						closeConnections();
+						throw new IOException("interrupted while waiting for workers");
+					}
+				}
+			}
+		}
+		finishConnections(acceptor);
+		return buffer.toHdrImage();
+	}
+
+	/*
+	 * Wait for the threads serving workers to send FINISHED and close their connections, then close any
+	 * connection whose worker has not let that happen within FINISH_TIMEOUT_MS
+	 */
+	private void finishConnections(Thread acceptor) throws IOException {
+		long deadline = System.currentTimeMillis() + FINISH_TIMEOUT_MS;
+		try {
+			acceptor.join(FINISH_TIMEOUT_MS); // Stops accepting once the server is closed
+			List<Thread> threads;
+			synchronized (connections) {
+				threads = new ArrayList<Thread>(connectionThreads);
+			}
+			for (Thread thread : threads) {
+				thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while finishing workers");
+		} finally {
+			closeConnections();
+		}
+	}
+
+	private void closeConnections() {
+		synchronized (connections) {
+			for (Socket connection : connections) {
+				try {
+					connection.close();
+				} catch (IOException e) {
+					// Already closed or failed, either way no longer in use
+				}
+			}
+		}
+	}
+
+	// Serve each worker that connects on its own thread, until the server is closed
+	private void acceptWorkers(ServerSocket server) {
+		while (true) {
+			Socket socket;
+			try {
+				socket = server.accept();
+			} catch (IOException e) {
+				return; // Closed once rendering is complete
+			}
+			Thread thread = new Thread(() -> serveWorker(socket), "worker " + socket.getRemoteSocketAddress());
+			thread.setDaemon(true);
+			synchronized (connections) {
+				connections.add(socket);
+				connectionThreads.add(thread);
+			}
+			thread.start();
+		}
+	}
+
+	/*
+	 * Send a worker the scene and then tiles until none remain, merging each result. If the worker fails,
+	 * its current tile is put back in the queue.
+	 */
+	private void serveWorker(Socket socket) {
+		String name = socket.getRemoteSocketAddress().toString();
+		int tile = FINISHED;
+		try (Socket connection = socket) {
+			connection.setSoTimeout(WORKER_TIMEOUT_MS);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+			DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(options.size());
+			for (String option : options) {
+				out.writeUTF(option);
+			}
+			out.writeInt(sceneData.length);
+			out.write(sceneData);
+			out.flush();
+			System.out.println("Worker " + name + " connected");
+
+			while ((tile = nextTile()) != FINISHED) {
+				int tileX = tile % renderer.getTilesX(), tileY = tile / renderer.getTilesX();
+				out.writeInt(tileX);
+				out.writeInt(tileY);
+				out.flush();
+
+				// Receive the whole tile before merging, so a worker failing part way leaves no trace
+				int size = renderer.getTileSize();
+				int x0 = tileX * size, y0 = tileY * size;
+				int x1 = Math.min(renderer.getWidth(), x0 + size), y1 = Math.min(renderer.getHeight(), y0 + size);
+				byte[] result = new byte[(x1 - x0) * (y1 - y0) * PIXEL_BYTES];
+				in.readFully(result);
+				completeTile(result, x0, y0, x1, y1);
+				tile = FINISHED;
+			}
+			out.writeInt(FINISHED);
+			out.flush();
+		} catch (IOException e) {
+			if (tile != FINISHED) {
+				System.err.println("Lost worker " + name + " (" + e + "), reassigning its tile");
+				tiles.add(tile);
+			} else if (!(e instanceof SocketException)) {
+				System.err.println("Lost worker " + name + ": " + e);
+			}
+		}
+	}
+
+	/*
+	 * Take the next unassigned tile, waiting while other workers still hold tiles they might fail to
+	 * return, or return FINISHED once every tile is complete
+	 */
+	private int nextTile() throws IOException {
+		while (true) {
+			synchronized (this) {
+				if (tilesRemaining == 0) {
+					return FINISHED;
+				}
+			}
+			try {
+				Integer tile = tiles.poll(1, TimeUnit.SECONDS);
+				if (tile != null) {
+					return tile;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted");
+			}
+		}
+	}
+
+	// Merge the pixels of a returned tile into the buffer
+	private synchronized void completeTile(byte[] result, int x0, int y0, int x1, int y1) throws IOException {
+		buffer.addRegion(new DataInputStream(new ByteArrayInputStream(result)), x0, y0, x1, y1);
+		tilesRemaining--;
+		int tileCount = renderer.getTilesX() * renderer.getTilesY();
+		int done = tileCount - tilesRemaining;
+		if (done * 10 / tileCount != (done - 1) * 10 / tileCount) {
+			System.out.println(String.format("%.2f", 100 * done / (float) tileCount) + "% completed");
+		}
+		if (tilesRemaining == 0) {
+			notifyAll();
+		}
+	}
+}
@@ -0,0 +1,8 @@
+package tick1;
+
+// Receives intermediate images from Renderer.renderProgressive
+public interface RenderListener {
+
+	// Called after each pass with the linear image so far; return false to stop rendering early
+	boolean snapshot(HdrImage image, int samplesPerPixel);
+}
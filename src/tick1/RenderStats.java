@@ -0,0 +1,310 @@
+package tick1;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/*
+ * Counts of the work done by a render: rays cast by kind, ray-object intersection tests, bump map normal
+ * evaluations and time spent tracing paths and lighting hits. The counting code anywhere in the tracer
+ * adds to a plain per-thread array, which the renderer moves into this render's striped totals (and
+ * those of the thread) at the end of every tile, so the hot paths never touch shared memory. Each tile is
+ * also recorded as a JFR event, and the whole render as another, for Flight Recorder to collect.
+ *
+ * Counting is off until enabled, which costs a single check at each counting point.
+ */
+public class RenderStats {
+
+	public enum Counter {
+		PRIMARY_RAYS("primaryRays"),
+		DOF_RAYS("dofRays"),
+		SHADOW_RAYS("shadowRays"),
+		REFLECTION_RAYS("reflectionRays"),
+		INTERSECTION_TESTS("intersectionTests"),
+		BUMP_NORMALS("bumpNormals"),
+		TRACE_NANOS("traceNanos"), // Including lighting
+		ILLUMINATE_NANOS("illuminateNanos");
+
+		// Name in the JSON summary
+		private final String key;
+
+		Counter(String key) {
+			this.key = key;
+		}
+	}
+
+	private static final int COUNTERS = Counter.values().length;
+
+	private static volatile boolean enabled = false;
+
+	// Counts made on each thread since its current tile began
+	private static final ThreadLocal<long[]> pending = ThreadLocal.withInitial(() -> new long[COUNTERS]);
+
+	private final LongAdder[] totals = createAdders();
+	private final Map<String, LongAdder[]> threadTotals = new ConcurrentHashMap<String, LongAdder[]>();
+	private final int width, height;
+	private final long startNanos = System.nanoTime();
+	private volatile long endNanos = -1;
+	private final RenderEvent event = new RenderEvent();
+
+	public RenderStats(int width, int height) {
+		this.width = width;
+		this.height = height;
+		event.begin();
+	}
+
+	public static void setEnabled(boolean enabled) {
+		RenderStats.enabled = enabled;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	static void count(Counter counter) {
+		if (enabled) {
+			pending.get()[counter.ordinal()]++;
+		}
+	}
+
+	static void add(Counter counter, long amount) {
+		if (enabled) {
+			pending.get()[counter.ordinal()] += amount;
+		}
+	}
+
+	// Add to a count in the array from getThreadCounts or getPendingCounts, if counting is on
+	static void add(long[] counts, Counter counter, long amount) {
+		if (enabled && counts != null) {
+			counts[counter.ordinal()] += amount;
+		}
+	}
+
+	/*
+	 * Get the array the current thread counts into, indexed by Counter ordinal, for code that counts
+	 * several things at once or keeps its own per-thread state. The array stays the same for the life of
+	 * the thread.
+	 */
+	static long[] getThreadCounts() {
+		return pending.get();
+	}
+
+	// Get the current thread's counts as getThreadCounts, or null if counting is off
+	static long[] getPendingCounts() {
+		return enabled ? pending.get() : null;
+	}
+
+	// Start timing, returning the time to pass to stopTimer
+	static long startTimer() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	static void stopTimer(Counter counter, long start) {
+		if (enabled) {
+			pending.get()[counter.ordinal()] += System.nanoTime() - start;
+		}
+	}
+
+	// Begin a tile on the current thread, discarding anything counted outside a tile
+	TileEvent beginTile() {
+		if (enabled) {
+			Arrays.fill(pending.get(), 0);
+		}
+		TileEvent event = new TileEvent();
+		event.begin();
+		return event;
+	}
+
+	// End a tile begun on the current thread, adding its counts to the render and the thread
+	void endTile(TileEvent event, int tileX, int tileY) {
+		event.end();
+		if (!enabled) {
+			return;
+		}
+		long[] counts = pending.get();
+		LongAdder[] thread = threadTotals.computeIfAbsent(Thread.currentThread().getName(), name -> createAdders());
+		for (int i = 0; i < COUNTERS; i++) {
+			totals[i].add(counts[i]);
+			thread[i].add(counts[i]);
+		}
+		if (event.shouldCommit()) {
+			event.tileX = tileX;
+			event.tileY = tileY;
+			event.setCounts(counts);
+			event.commit();
+		}
+		Arrays.fill(counts, 0);
+	}
+
+	// Mark the render complete, recording it as a JFR event
+	void finish() {
+		endNanos = System.nanoTime();
+		event.end();
+		if (event.shouldCommit()) {
+			event.width = width;
+			event.height = height;
+			event.setCounts(getTotals());
+			event.raysPerSecond = getRaysPerSecond();
+			event.commit();
+		}
+	}
+
+	public long get(Counter counter) {
+		return totals[counter.ordinal()].sum();
+	}
+
+	public long getRays() {
+		return get(Counter.PRIMARY_RAYS) + get(Counter.DOF_RAYS) + get(Counter.SHADOW_RAYS)
+				+ get(Counter.REFLECTION_RAYS);
+	}
+
+	// Time from the start of the render to its end, or until now if it has not finished
+	public long getElapsedNanos() {
+		long end = endNanos;
+		return (end < 0 ? System.nanoTime() : end) - startNanos;
+	}
+
+	public double getRaysPerSecond() {
+		return getRays() / Math.max(1e-9, getElapsedNanos() * 1e-9);
+	}
+
+	private long[] getTotals() {
+		long[] counts = new long[COUNTERS];
+		for (int i = 0; i < COUNTERS; i++) {
+			counts[i] = totals[i].sum();
+		}
+		return counts;
+	}
+
+	// Summarise the render as a JSON object, with the totals and those of each thread
+	public String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"width\":").append(width).append(",\"height\":").append(height);
+		json.append(",\"elapsedNanos\":").append(getElapsedNanos());
+		json.append(",\"rays\":").append(getRays());
+		json.append(",\"raysPerSecond\":").append(Math.round(getRaysPerSecond()));
+		json.append(",\"totals\":");
+		appendCounts(json, totals);
+		json.append(",\"threads\":{");
+		boolean first = true;
+		for (Map.Entry<String, LongAdder[]> thread : new TreeMap<String, LongAdder[]>(threadTotals).entrySet()) {
+			if (!first) {
+				json.append(',');
+			}
+			first = false;
+			appendString(json, thread.getKey());
+			json.append(':');
+			appendCounts(json, thread.getValue());
+		}
+		return json.append("}}").toString();
+	}
+
+	private static void appendCounts(StringBuilder json, LongAdder[] counts) {
+		json.append('{');
+		for (Counter counter : Counter.values()) {
+			if (counter.ordinal() > 0) {
+				json.append(',');
+			}
+			json.append('"').append(counter.key).append("\":").append(counts[counter.ordinal()].sum());
+		}
+		json.append('}');
+	}
+
+	private static void appendString(StringBuilder json, String s) {
+		json.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+
+	private static LongAdder[] createAdders() {
+		LongAdder[] adders = new LongAdder[COUNTERS];
+		for (int i = 0; i < COUNTERS; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	// Fields shared by the tile and render events, in the order of Counter
+	@Category("Ray Tracer")
+	abstract static class CountsEvent extends Event {
+		@Label("Primary Rays")
+		long primaryRays;
+
+		@Label("Depth-of-Field Rays")
+		long dofRays;
+
+		@Label("Shadow Rays")
+		long shadowRays;
+
+		@Label("Reflection Rays")
+		long reflectionRays;
+
+		@Label("Intersection Tests")
+		long intersectionTests;
+
+		@Label("Bump Map Normals")
+		long bumpNormals;
+
+		@Label("Trace Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long traceTime;
+
+		@Label("Illuminate Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long illuminateTime;
+
+		void setCounts(long[] counts) {
+			primaryRays = counts[Counter.PRIMARY_RAYS.ordinal()];
+			dofRays = counts[Counter.DOF_RAYS.ordinal()];
+			shadowRays = counts[Counter.SHADOW_RAYS.ordinal()];
+			reflectionRays = counts[Counter.REFLECTION_RAYS.ordinal()];
+			intersectionTests = counts[Counter.INTERSECTION_TESTS.ordinal()];
+			bumpNormals = counts[Counter.BUMP_NORMALS.ordinal()];
+			traceTime = counts[Counter.TRACE_NANOS.ordinal()];
+			illuminateTime = counts[Counter.ILLUMINATE_NANOS.ordinal()];
+		}
+	}
+
+	@Name("tick1.RenderTile")
+	@Label("Render Tile")
+	@Description("Work done rendering one tile, on the thread that rendered it")
+	static class TileEvent extends CountsEvent {
+		@Label("Tile X")
+		int tileX;
+
+		@Label("Tile Y")
+		int tileY;
+	}
+
+	@Name("tick1.Render")
+	@Label("Render")
+	@Description("Work done by a whole render")
+	static class RenderEvent extends CountsEvent {
+		@Label("Width")
+		int width;
+
+		@Label("Height")
+		int height;
+
+		@Label("Rays per Second")
+		double raysPerSecond;
+	}
+}
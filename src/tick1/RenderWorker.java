@@ -0,0 +1,126 @@
+package tick1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Renders tiles for a RenderCoordinator. The worker opens one connection per thread, each receiving the
+ * scene and rendering options and then rendering the tiles it is sent one at a time. The scene is only
+ * read from the first connection to receive it and shared by the rest, as is the renderer, and each tile
+ * is rendered into a buffer of its own size, so extra threads cost little memory. Bump maps named by the
+ * scene are loaded from the worker's own file system, relative to its working directory.
+ */
+public class RenderWorker {
+
+	private final String host;
+	private final int port;
+	private final int threads;
+
+	// The scene being rendered and the compiled form it was read from, shared by every connection
+	private byte[] sceneData;
+	private Scene scene;
+
+	// The renderer every connection renders with and the options it was created from, so that the work
+	// of all of them is counted together
+	private List<String> rendererOptions;
+	private Renderer renderer;
+
+	public RenderWorker(String host, int port, int threads) {
+		this.host = host;
+		this.port = port;
+		this.threads = Math.max(1, threads);
+	}
+
+	// Render tiles on every connection until the coordinator has no more
+	public void run() throws IOException {
+		List<Thread> connections = new ArrayList<Thread>();
+		IOException[] failure = new IOException[1];
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread(() -> {
+				try {
+					renderTiles();
+				} catch (IOException e) {
+					synchronized (failure) {
+						failure[0] = e;
+					}
+				}
+			}, "worker " + i);
+			thread.start();
+			connections.add(thread);
+		}
+		for (Thread thread : connections) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while rendering");
+			}
+		}
+		synchronized (failure) {
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+		}
+		if (renderer != null) {
+			Tick1.printStats(renderer);
+		}
+	}
+
+	// Connect to the coordinator and render the tiles it sends
+	private void renderTiles() throws IOException {
+		try (Socket socket = new Socket(host, port)) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			if (in.readInt() != RenderCoordinator.MAGIC || in.readInt() != RenderCoordinator.VERSION) {
+				throw new IOException("unexpected protocol from coordinator " + host + ":" + port);
+			}
+			int optionCount = in.readInt();
+			List<String> options = new ArrayList<String>();
+			for (int i = 0; i < optionCount; i++) {
+				options.add(in.readUTF());
+			}
+			byte[] sceneData = new byte[in.readInt()];
+			in.readFully(sceneData);
+
+			Scene scene = getScene(sceneData);
+			Renderer renderer = getRenderer(options);
+			int size = renderer.getTileSize();
+
+			int tileX;
+			while ((tileX = in.readInt()) != RenderCoordinator.FINISHED) {
+				int tileY = in.readInt();
+				int x0 = tileX * size, y0 = tileY * size;
+				int x1 = Math.min(renderer.getWidth(), x0 + size), y1 = Math.min(renderer.getHeight(), y0 + size);
+				AccumulationBuffer buffer = new AccumulationBuffer(x1 - x0, y1 - y0, x0, y0);
+				renderer.renderTile(scene, buffer, tileX, tileY);
+				buffer.writeRegion(out, x0, y0, x1, y1);
+				out.flush();
+			}
+		}
+	}
+
+	// Get the scene compiled as data, reading it only if it differs from the one already read
+	private synchronized Scene getScene(byte[] data) throws IOException {
+		if (scene == null || !Arrays.equals(sceneData, data)) {
+			scene = CompiledScene.fromBytes(data);
+			sceneData = data;
+		}
+		return scene;
+	}
+
+	// Get a renderer with options, creating it only if they differ from those of the one already created
+	private synchronized Renderer getRenderer(List<String> options) {
+		if (renderer == null || !rendererOptions.equals(options)) {
+			renderer = Tick1.createRenderer(options, 1);
+			rendererOptions = options;
+		}
+		return renderer;
+	}
+}
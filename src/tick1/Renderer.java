@@ -1,7 +1,14 @@
 package tick1;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
 
 public class Renderer {
 	
@@ -18,20 +25,173 @@ public class Renderer {
 	private ColorRGB backgroundColor = new ColorRGB(0.001);
 
 	// Number of shadow rays cast for soft shadows
-	private final double SHADOW_RAY_COUNT = 20;
+	private final int SHADOW_RAY_COUNT = 20;
+	private int shadowRayCount = SHADOW_RAY_COUNT;
+
+	// Shadow rays cast to each light before refining only those points found to be in penumbra
+	private final int INITIAL_SHADOW_RAYS = 8;
+	private boolean adaptiveShadows = true;
+
+	// Largest number of lights shading a point; scenes with more lights are sampled
+	private int lightBudget = 8;
 
 	// Size of each light source
 	private final double LIGHT_SIZE = 0.4;
 
 	// Distributed depth-of-field constants
-	private final int DOF_RAY_COUNT = 150; // No. of spawned DoF rays
+	private final int DOF_RAY_COUNT = 150; // Default maximum no. of spawned DoF rays
 	private final double DOF_FOCAL_PLANE = 3.51805; // Focal length of camera
 	private final double DOF_AMOUNT = 0.07; // Amount of DoF effect
 
+	// Number of depth-of-field rays whose primary intersections are found together as a packet
+	private int packetSize = 8;
+
+	// Reflections contributing less than this fraction of a pixel's colour are not followed
+	private double minContribution = 0.01;
+
+	// Whether paths below the roulette threshold are ended at random rather than followed in full
+	private boolean russianRoulette = false;
+	private final double ROULETTE_THRESHOLD = 0.1;
+
+	// Whether samples are traced breadth-first in wavefronts rather than one path at a time
+	private boolean wavefront = false;
+
+	// Tone mapping applied by render, which can be redone later on the linear image from renderHdr
+	private Tonemapper tonemapper = new Tonemapper();
+
+	// Counts of the work done by the latest render
+	private RenderStats stats;
+
+	// Where the dependencies of each tile are recorded, during renderRecording and rerender only
+	private SceneDependencies dependencies;
+
+	// Adaptive depth-of-field sampling - DoF rays are spawned in batches until the pixel converges
+	private final int DOF_BATCH_SIZE = 16; // No. of DoF rays per batch
+	private final double DOF_MIN_LUMINANCE = 0.001; // Floor on the mean used for relative error
+	private int maxDofSamples = DOF_RAY_COUNT; // Upper limit on DoF rays per pixel
+	private double dofTolerance = 0.02; // Relative standard error at which a pixel has converged
+
+	// Side length in pixels of the square tiles the image is split into
+	private final int TILE_SIZE = 32;
+
+	// Number of worker threads used to render tiles, and a pool shared with other renders, if set
+	private int threads;
+	private ForkJoinPool sharedPool;
+
+	// Seed for all random decisions, and the sampler each thread draws them from
+	private long seed = 0;
+	private LongFunction<Sampler> samplerFactory = SobolSampler::new;
+	private ThreadLocal<Sampler> samplers = ThreadLocal.withInitial(() -> samplerFactory.apply(seed));
+
+	// Lights each thread chose for its latest shading point and their weights, grown to fit the light budget
+	private final ThreadLocal<int[]> chosenLights = ThreadLocal.withInitial(() -> new int[0]);
+	private final ThreadLocal<double[]> lightWeights = ThreadLocal.withInitial(() -> new double[0]);
+
+	// Wavefront tracer each thread reuses from tile to tile, replaced when its sampler or settings change
+	private final ThreadLocal<WavefrontTracer> tracers = new ThreadLocal<WavefrontTracer>();
+
 	public Renderer(int width, int height, int bounces) {
+		this(width, height, bounces, 1);
+	}
+
+	public Renderer(int width, int height, int bounces, int threads) {
 		this.width = width;
 		this.height = height;
 		this.bounces = bounces;
+		this.threads = Math.max(1, threads);
+		stats = new RenderStats(width, height);
+	}
+
+	/*
+	 * Render tiles on pool, which other renders may be using at the same time, rather than on a pool of
+	 * this renderer's own. Its parallelism replaces the thread count.
+	 */
+	public void setPool(ForkJoinPool pool) {
+		sharedPool = pool;
+		threads = pool.getParallelism();
+	}
+
+	// Set the maximum number of depth-of-field rays traced per pixel
+	public void setMaxDofSamples(int maxDofSamples) {
+		this.maxDofSamples = Math.max(1, maxDofSamples);
+	}
+
+	// Set the relative error tolerance for adaptive depth-of-field sampling; 0 always uses the maximum
+	public void setDofTolerance(double dofTolerance) {
+		this.dofTolerance = dofTolerance;
+	}
+
+	// Set the seed from which every pixel's samples are derived
+	public void setSeed(long seed) {
+		this.seed = seed;
+		samplers = ThreadLocal.withInitial(() -> samplerFactory.apply(seed));
+	}
+
+	// Set the number of depth-of-field rays traced together as a packet; 1 traces each ray on its own
+	public void setPacketSize(int packetSize) {
+		this.packetSize = Math.max(1, packetSize);
+	}
+
+	// Set the minimum contribution for which direct illumination is calculated and reflections followed
+	public void setMinContribution(double minContribution) {
+		this.minContribution = minContribution;
+	}
+
+	// Set whether low-contribution reflections are ended by Russian roulette
+	public void setRussianRoulette(boolean russianRoulette) {
+		this.russianRoulette = russianRoulette;
+	}
+
+	// Set whether samples are traced a bounce at a time across a tile by a WavefrontTracer
+	public void setWavefront(boolean wavefront) {
+		this.wavefront = wavefront;
+	}
+
+	// Set the number of shadow rays cast to each light per shading point
+	public void setShadowRayCount(int shadowRayCount) {
+		this.shadowRayCount = Math.max(1, shadowRayCount);
+	}
+
+	// Set whether shadow rays beyond the first few are only cast in penumbra
+	public void setAdaptiveShadows(boolean adaptiveShadows) {
+		this.adaptiveShadows = adaptiveShadows;
+	}
+
+	// Set the number of lights sampled per shading point in scenes with more lights than this
+	public void setLightBudget(int lightBudget) {
+		this.lightBudget = Math.max(1, lightBudget);
+	}
+
+	int getLightBudget() {
+		return lightBudget;
+	}
+
+	public void setTonemapper(Tonemapper tonemapper) {
+		this.tonemapper = tonemapper;
+	}
+
+	/*
+	 * Describe every setting that affects the rendered pixels, for identifying renders of the same scene.
+	 * The thread count and tone mapping are left out, as they do not change the linear image.
+	 */
+	public String getSettings() {
+		return "width=" + width + ";height=" + height + ";bounces=" + bounces + ";seed=" + seed
+				+ ";sampler=" + samplerFactory.apply(seed).getClass().getName()
+				+ ";shadowRays=" + shadowRayCount + ";adaptiveShadows=" + adaptiveShadows
+				+ ";lightBudget=" + lightBudget + ";minContribution=" + minContribution
+				+ ";russianRoulette=" + russianRoulette + ";dofSamples=" + maxDofSamples
+				+ ";dofTolerance=" + dofTolerance + ";packetSize=" + packetSize + ";wavefront=" + wavefront;
+	}
+
+	// Get counts of the work done by the latest render, or by every tile rendered since if renderTile is used
+	public RenderStats getStats() {
+		return stats;
+	}
+
+	// Set how each thread's sampler is created from the seed, which selects the sampling pattern
+	public void setSamplerFactory(LongFunction<Sampler> samplerFactory) {
+		this.samplerFactory = samplerFactory;
+		samplers = ThreadLocal.withInitial(() -> samplerFactory.apply(seed));
 	}
 
 	/*
@@ -39,176 +199,793 @@ public class Renderer {
 	 * The bouncesLeft parameter is for rendering reflective surfaces.
 	 */
 	protected ColorRGB trace(Scene scene, Ray ray, int bouncesLeft) {
+		return trace(scene, ray, bouncesLeft, samplers.get());
+	}
+
+	// Trace the ray, drawing random decisions from sampler
+	protected ColorRGB trace(Scene scene, Ray ray, int bouncesLeft, Sampler sampler) {
 
 		// Find closest intersection of ray in the scene
 		RaycastHit closestHit = scene.findClosestIntersection(ray);
 
-        // If no object has been hit, return a background colour
-        SceneObject object = closestHit.getObjectHit();
-        if (object == null){
-            return backgroundColor;
-        }
-        
-        // Otherwise calculate colour at intersection and return
-        // Get properties of surface at intersection - location, surface normal
-        Vector3 P = closestHit.getLocation();
-        Vector3 N = closestHit.getNormal();
-        Vector3 O = ray.getOrigin();
+		return shade(scene, ray, closestHit, bouncesLeft, sampler);
+	}
 
-		// Calculate direct illumination at the point
-		ColorRGB directIllumination = this.illuminate(scene, object, P, N, O);
+	/*
+	 * Calculate the colour seen along ray, given its closest intersection with the scene. Reflections are
+	 * followed iteratively, carrying the throughput: the fraction of the light leaving the current hit that
+	 * reaches the camera. Each hit's direct illumination is only calculated when its share of the final
+	 * colour is at least the minimum contribution, which skips perfect mirrors entirely, and the path
+	 * ends early once everything beyond a hit would contribute less than that.
+	 */
+	private ColorRGB shade(Scene scene, Ray ray, RaycastHit closestHit, int bouncesLeft, Sampler sampler) {
+		double red = 0, green = 0, blue = 0;
+		double throughput = 1;
+		while (true) {
+			// If no object has been hit, add the background colour
+			SceneObject object = closestHit.getObjectHit();
+			if (object == null) {
+				red += backgroundColor.r * throughput;
+				green += backgroundColor.g * throughput;
+				blue += backgroundColor.b * throughput;
+				break;
+			}
 
-		// Get reflectivity of object
-		double reflectivity = object.getReflectivity();
+			// Get properties of surface at intersection - location, surface normal
+			Vector3 P = closestHit.getLocation();
+			Vector3 N = closestHit.getNormal();
+			Vector3 O = ray.getOrigin();
+
+			// Add the direct illumination at the point, scaled to conserve light
+			double reflectivity = object.getReflectivity();
+			boolean lastBounce = isLastBounce(bouncesLeft, throughput, reflectivity);
+			double directWeight = getDirectWeight(throughput, reflectivity, lastBounce);
+			if (isVisible(directWeight)) {
+				long start = RenderStats.startTimer();
+				ColorRGB directIllumination = this.illuminate(scene, object, P, N, O, sampler);
+				RenderStats.stopTimer(RenderStats.Counter.ILLUMINATE_NANOS, start);
+				red += directIllumination.r * directWeight;
+				green += directIllumination.g * directWeight;
+				blue += directIllumination.b * directWeight;
+			}
 
-		// Base case - if no bounces left or non-reflective surface
-		if (bouncesLeft == 0 || reflectivity == 0) {
-			return directIllumination;
+			// Follow the reflected ray, unless the path ends here
+			if (lastBounce) {
+				break;
+			}
+			throughput = getReflectedThroughput(throughput, reflectivity, sampler);
+			if (throughput == 0) {
+				break;
+			}
+			ray = reflect(ray, P, N);
+			closestHit = scene.findClosestIntersection(ray);
+			bouncesLeft--;
 		}
-		else { // Recursive case
-			ColorRGB reflectedIllumination;
-
-			// Calculate the direction R of the bounced ray
-			Vector3 R = ray.getDirection().reflectIn(N).scale(-1);
+		return new ColorRGB(red, green, blue);
+	}
 
-			// Spawn a reflectedRay with bias
-			Ray reflectedRay = new Ray(P.add(R.scale(EPSILON)), R);
+	/*
+	 * Determine whether a path ends at a hit: when no bounces are left, the surface is not reflective, or
+	 * the reflection would contribute less than the minimum
+	 */
+	boolean isLastBounce(int bouncesLeft, double throughput, double reflectivity) {
+		return bouncesLeft == 0 || reflectivity == 0 || throughput * reflectivity < minContribution;
+	}
 
-			// Calculate reflectedIllumination by tracing reflectedRay
-			reflectedIllumination = trace(scene, reflectedRay, bouncesLeft - 1);
+	/*
+	 * Weight of the direct illumination at a hit reached with the given throughput. The last hit of a path
+	 * stands in for everything beyond it, so takes the whole throughput.
+	 */
+	static double getDirectWeight(double throughput, double reflectivity, boolean lastBounce) {
+		return lastBounce ? throughput : throughput * (1.0 - reflectivity);
+	}
 
-			// Scale direct and reflective illumination to conserve light
-			directIllumination = directIllumination.scale(1.0 - reflectivity);
-			reflectedIllumination = reflectedIllumination.scale(reflectivity);
+	// Determine whether illumination with the given weight is worth calculating
+	boolean isVisible(double weight) {
+		return weight > 0 && weight >= minContribution;
+	}
 
-			return directIllumination.add(reflectedIllumination);
+	/*
+	 * Throughput of the ray reflected from a hit, or 0 if the path is ended by Russian roulette. Paths
+	 * whose throughput falls below the roulette threshold survive with probability proportional to it, and
+	 * survivors are scaled up so that the expected colour is unchanged.
+	 */
+	double getReflectedThroughput(double throughput, double reflectivity, Sampler sampler) {
+		throughput *= reflectivity;
+		if (russianRoulette && throughput < ROULETTE_THRESHOLD) {
+			double survival = throughput / ROULETTE_THRESHOLD;
+			return sampler.next() < survival ? ROULETTE_THRESHOLD : 0;
 		}
+		return throughput;
+	}
+
+	// Spawn the ray reflected from ray at P about the surface normal N, with bias
+	Ray reflect(Ray ray, Vector3 P, Vector3 N) {
+		RenderStats.count(RenderStats.Counter.REFLECTION_RAYS);
+
+		// Calculate the direction R of the bounced ray
+		Vector3 R = ray.getDirection().reflectIn(N).scale(-1);
+		return new Ray(P.add(R.scale(EPSILON)), R);
 	}
 
 	/*
 	 * Illuminate a surface on and object in the scene at a given position P and surface normal N,
 	 * relative to ray originating at O
 	 */
-	private ColorRGB illuminate(Scene scene, SceneObject object, Vector3 P, Vector3 N, Vector3 O) {
-	   
-		ColorRGB colourToReturn = new ColorRGB(0);
+	protected ColorRGB illuminate(Scene scene, SceneObject object, Vector3 P, Vector3 N, Vector3 O) {
+		return illuminate(scene, object, P, N, O, samplers.get());
+	}
 
-		ColorRGB I_a = scene.getAmbientLighting(); // Ambient illumination intensity
+	// Illuminate a surface, drawing soft-shadow sample positions from sampler
+	protected ColorRGB illuminate(Scene scene, SceneObject object, Vector3 P, Vector3 N, Vector3 O, Sampler sampler) {
 
-		ColorRGB C_diff = object.getColour(); // Diffuse colour defined by the object
-		
-		// Get Phong coefficients
-		double k_d = object.getPhong_kD();
-		double k_s = object.getPhong_kS();
-		double alpha = object.getPhong_alpha();
+		// The shading kernel works on primitive values rather than Vector3/ColorRGB so that the inner
+		// shadow loop allocates nothing; only the returned colour is an object
 
 		// Add ambient light term
-		colourToReturn = colourToReturn.add(C_diff.scale(I_a));
+		double[] colour = new double[3];
+		addAmbient(colour, 0, scene, object);
+		SceneDependencies.recordShading();
 
-		// Loop over each point light source
+		// Loop over each chosen point light source
+		double[] shadowRay = new double[6];
 		List<PointLight> pointLights = scene.getPointLights();
-		for (int i = 0; i < pointLights.size(); i++) {
-			PointLight light = pointLights.get(i); // Select point light
-
-			// Calculate point light constants
-			double distanceToLight = (light.getPosition().subtract(P)).magnitude();
-			ColorRGB C_spec = light.getColour();
-			ColorRGB I = light.getIlluminationAt(distanceToLight);
-
-			// Calculate L, V, R
-			Vector3 L = (light.getPosition().subtract(P)).normalised();
-			Vector3 V = (O.subtract(P)).normalised();
-			Vector3 R = L.reflectIn(N).normalised();
-
-			// Scale factor for soft shadows, which will be used to scale diffuse and specular components
-			double shadowScaleFactor = 0;
-
-			// Cast a number of shadow rays to points within the light, averaging the contributions of each
-			for (int j = 0; j < SHADOW_RAY_COUNT; j++) {
-				// Select a random point within the light source
-				Vector3 locationInLight = Vector3.randomInsideUnitSphere().scale(LIGHT_SIZE);
-
-				// Cast a ray to that random point, and get its intersection with scene objects
-				Vector3 shadowDirection = (light.getPosition().add(locationInLight).subtract(P)).normalised();
-				Ray shadowRay = new Ray(P.add(shadowDirection.scale(EPSILON)), shadowDirection);
-				RaycastHit shadowInt = scene.findClosestIntersection(shadowRay);
-
-				// If the ray is not obstructed, adjust the scale factor
-				if (shadowInt.getDistance() > distanceToLight) {
-					shadowScaleFactor += 1 / SHADOW_RAY_COUNT;
+		int slots = getLightSlots(scene);
+		if (chosenLights.get().length < slots) {
+			chosenLights.set(new int[slots]);
+			lightWeights.set(new double[slots]);
+		}
+		int[] chosenLights = this.chosenLights.get();
+		double[] lightWeights = this.lightWeights.get();
+		int chosen = chooseLights(scene, P, sampler, chosenLights, lightWeights);
+		for (int i = 0; i < chosen; i++) {
+			PointLight light = pointLights.get(chosenLights[i]); // Select point light
+			SceneDependencies.recordLight(chosenLights[i]);
+
+			// If neither the diffuse nor the specular term can be positive, shadows make no difference
+			if (!receivesLight(light, P, N, O)) {
+				continue;
+			}
+			double distanceToLight = getDistanceToLight(light, P);
+
+			// Cast a number of shadow rays to points within the light, averaging the contributions of each.
+			// A few are cast first, and the rest only if they disagree, in the penumbra.
+			sampler.startSet(shadowRayCount);
+			int initial = getInitialShadowRayCount();
+			int unoccluded = 0;
+			int cast = 0;
+			while (cast < shadowRayCount) {
+				int end = cast == 0 ? initial : shadowRayCount;
+				for (int j = cast; j < end; j++) {
+					sampleShadowRay(sampler, j, light, P, shadowRay, 0);
+
+					// If no object obstructs the ray before the light, it counts towards the scale factor
+					if (!scene.occluded(shadowRay[0], shadowRay[1], shadowRay[2], shadowRay[3], shadowRay[4],
+							shadowRay[5], distanceToLight)) {
+						unoccluded++;
+					}
+				}
+				cast = end;
+				if (!isPenumbra(unoccluded, cast)) {
+					break;
 				}
 			}
 
 			// Add diffuse/specular components
-			if (N.dot(L) > 0) {
-				ColorRGB diffuse = I.scale(C_diff.scale(k_d * N.dot(L) * shadowScaleFactor));
-				colourToReturn = colourToReturn.add(diffuse);
-			}
-			if (R.dot(V) > 0) {
-				ColorRGB specular = I.scale(C_spec.scale(k_s * Math.pow(R.dot(V), alpha) * shadowScaleFactor));
-				colourToReturn = colourToReturn.add(specular);
+			addLight(colour, 0, object, light, P, N, O, getShadowScaleFactor(unoccluded, cast) * lightWeights[i]);
+		}
+		return new ColorRGB(colour[0], colour[1], colour[2]);
+	}
+
+	// Number of lights chosen per shading point in scene
+	int getLightSlots(Scene scene) {
+		return Math.min(scene.getPointLights().size(), lightBudget);
+	}
+
+	/*
+	 * Choose the lights that illuminate shading point P, writing their indices into lights and the weight
+	 * of each one's contribution into weights, and return how many were chosen. If the scene has no more
+	 * lights than the budget then all are used with weight 1. Otherwise the budget is filled by drawing
+	 * lights (with replacement) from the scene's light hierarchy in proportion to their estimated
+	 * illumination at P, each weighted by 1 / (budget * probability) so that the expected total is the
+	 * sum over every light.
+	 */
+	int chooseLights(Scene scene, Vector3 P, Sampler sampler, int[] lights, double[] weights) {
+		int lightCount = scene.getPointLights().size();
+		if (lightCount <= lightBudget) {
+			for (int i = 0; i < lightCount; i++) {
+				lights[i] = i;
+				weights[i] = 1;
 			}
+			return lightCount;
+		}
+		LightHierarchy hierarchy = scene.getLightHierarchy();
+		for (int i = 0; i < lightBudget; i++) {
+			lights[i] = hierarchy.sample(P, sampler.next());
+			weights[i] = 1 / (lightBudget * hierarchy.getProbability(P, lights[i]));
+		}
+		return lightBudget;
+	}
+
+	// Number of shadow rays first cast to each light, before deciding whether the point is in penumbra
+	int getInitialShadowRayCount() {
+		return adaptiveShadows ? Math.min(INITIAL_SHADOW_RAYS, shadowRayCount) : shadowRayCount;
+	}
+
+	// Determine whether some but not all of the shadow rays cast to a light reached it
+	static boolean isPenumbra(int unoccluded, int cast) {
+		return unoccluded > 0 && unoccluded < cast;
+	}
+
+	/*
+	 * Determine whether light can add anything to the colour seen from O at P, which needs either the
+	 * diffuse term (N.L > 0) or the specular term (R.V > 0) to be positive. The terms are calculated as
+	 * in addLight.
+	 */
+	static boolean receivesLight(PointLight light, Vector3 P, Vector3 N, Vector3 O) {
+		double vx = O.x - P.x, vy = O.y - P.y, vz = O.z - P.z;
+		Vector3 lightPosition = light.getPosition();
+		double lx = lightPosition.x - P.x, ly = lightPosition.y - P.y, lz = lightPosition.z - P.z;
+		double NdotL = N.x * lx + N.y * ly + N.z * lz;
+		if (NdotL > 0) {
+			return true;
+		}
+		double rx = 2 * NdotL * N.x - lx, ry = 2 * NdotL * N.y - ly, rz = 2 * NdotL * N.z - lz;
+		return rx * vx + ry * vy + rz * vz > 0;
+	}
+
+	// Write the ambient light reflected by object into colour[offset, offset + 3)
+	void addAmbient(double[] colour, int offset, Scene scene, SceneObject object) {
+		ColorRGB I_a = scene.getAmbientLighting(); // Ambient illumination intensity
+		ColorRGB C_diff = object.getColour(); // Diffuse colour defined by the object
+		colour[offset] = C_diff.r * I_a.r;
+		colour[offset + 1] = C_diff.g * I_a.g;
+		colour[offset + 2] = C_diff.b * I_a.b;
+	}
+
+	// Distance from P to the centre of light
+	static double getDistanceToLight(PointLight light, Vector3 P) {
+		Vector3 lightPosition = light.getPosition();
+		double lx = lightPosition.x - P.x, ly = lightPosition.y - P.y, lz = lightPosition.z - P.z;
+		return Math.sqrt(lx * lx + ly * ly + lz * lz);
+	}
+
+	/*
+	 * Write the shadow ray from P towards point j of the sampler's current set, placed within light, into
+	 * rays[offset, offset + 6) as its biased origin followed by its direction
+	 */
+	void sampleShadowRay(Sampler sampler, int j, PointLight light, Vector3 P, double[] rays, int offset) {
+		// Select a point within the light source, spread uniformly through its volume as in
+		// Vector3.insideUnitSphere
+		Vector3 lightPosition = light.getPosition();
+		double r = LIGHT_SIZE * Math.cbrt(sampler.getSetPoint(j, 0));
+		double cosTheta = 1 - 2 * sampler.getSetPoint(j, 1);
+		double sinTheta = Math.sqrt(Math.max(0, 1 - cosTheta * cosTheta));
+		double phi = sampler.getSetPoint(j, 2) * Math.PI * 2;
+		double targetX = lightPosition.x + r * sinTheta * Math.cos(phi);
+		double targetY = lightPosition.y + r * sinTheta * Math.sin(phi);
+		double targetZ = lightPosition.z + r * cosTheta;
+
+		// Cast a ray to that point
+		double sx = targetX - P.x, sy = targetY - P.y, sz = targetZ - P.z;
+		double sLength = Math.sqrt(sx * sx + sy * sy + sz * sz);
+		sx /= sLength; sy /= sLength; sz /= sLength;
+		rays[offset] = P.x + sx * EPSILON;
+		rays[offset + 1] = P.y + sy * EPSILON;
+		rays[offset + 2] = P.z + sz * EPSILON;
+		rays[offset + 3] = sx;
+		rays[offset + 4] = sy;
+		rays[offset + 5] = sz;
+	}
+
+	// Fraction of a light visible when unoccluded of the cast shadow rays to it reached it
+	static double getShadowScaleFactor(int unoccluded, int cast) {
+		double shadowScaleFactor = 0;
+		for (int j = 0; j < unoccluded; j++) {
+			shadowScaleFactor += 1 / (double) cast;
+		}
+		return shadowScaleFactor;
+	}
+
+	/*
+	 * Add the diffuse and specular light from light reflected towards O by object at P, scaled by the
+	 * soft-shadow factor, to colour[offset, offset + 3)
+	 */
+	void addLight(double[] colour, int offset, SceneObject object, PointLight light, Vector3 P, Vector3 N,
+			Vector3 O, double shadowScaleFactor) {
+		ColorRGB C_diff = object.getColour(); // Diffuse colour defined by the object
+
+		// Get Phong coefficients
+		double k_d = object.getPhong_kD();
+		double k_s = object.getPhong_kS();
+		double alpha = object.getPhong_alpha();
+
+		// Calculate V
+		double vx = O.x - P.x, vy = O.y - P.y, vz = O.z - P.z;
+		double vLength = Math.sqrt(vx * vx + vy * vy + vz * vz);
+		vx /= vLength; vy /= vLength; vz /= vLength;
+
+		// Calculate point light constants
+		Vector3 lightPosition = light.getPosition();
+		double lx = lightPosition.x - P.x, ly = lightPosition.y - P.y, lz = lightPosition.z - P.z;
+		double distanceToLight = Math.sqrt(lx * lx + ly * ly + lz * lz);
+		ColorRGB C_spec = light.getColour();
+		double falloff = light.getFalloffAt(distanceToLight); // I = C_spec * falloff
+
+		// Calculate L, R
+		lx /= distanceToLight; ly /= distanceToLight; lz /= distanceToLight;
+		double NdotL = N.x * lx + N.y * ly + N.z * lz;
+		double rx = 2 * NdotL * N.x - lx, ry = 2 * NdotL * N.y - ly, rz = 2 * NdotL * N.z - lz;
+		double rLength = Math.sqrt(rx * rx + ry * ry + rz * rz);
+		double RdotV = (rx * vx + ry * vy + rz * vz) / rLength;
+
+		if (NdotL > 0) {
+			double diffuse = k_d * NdotL * shadowScaleFactor;
+			colour[offset] += C_spec.r * falloff * (C_diff.r * diffuse);
+			colour[offset + 1] += C_spec.g * falloff * (C_diff.g * diffuse);
+			colour[offset + 2] += C_spec.b * falloff * (C_diff.b * diffuse);
+		}
+		if (RdotV > 0) {
+			double specular = k_s * Math.pow(RdotV, alpha) * shadowScaleFactor;
+			colour[offset] += C_spec.r * falloff * (C_spec.r * specular);
+			colour[offset + 1] += C_spec.g * falloff * (C_spec.g * specular);
+			colour[offset + 2] += C_spec.b * falloff * (C_spec.b * specular);
 		}
-		return colourToReturn;
 	}
 
-	// Render image from scene, with camera at origin
+	// Render image from scene, with camera at origin, and tone map it
 	public BufferedImage render(Scene scene) {
+		return tonemapper.toImage(renderHdr(scene));
+	}
+
+	// Render the linear radiance of the image from scene, with camera at origin
+	public HdrImage renderHdr(Scene scene) {
 		
-		// Set up image
-		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-		
-		// Set up camera
+		// Set up camera and a buffer to accumulate samples in
+		stats = new RenderStats(width, height);
 		Camera camera = new Camera(width, height);
+		AccumulationBuffer buffer = new AccumulationBuffer(width, height);
+		int tileCount = getTilesX() * getTilesY();
+		AtomicInteger tilesCompleted = new AtomicInteger();
+
+		// Sample each pixel in batches until it converges
+		forEachTile((tileX, tileY) -> {
+			sampleTile(scene, camera, buffer, tileX, tileY);
+
+			// Display progress every 10% of tiles
+			int done = tilesCompleted.incrementAndGet();
+			if (done * 10 / tileCount != (done - 1) * 10 / tileCount)
+				System.out.println(String.format("%.2f", 100 * done / (float) tileCount) + "% completed");
+		});
+
+		stats.finish();
+		return buffer.toHdrImage();
+	}
 
-		// Loop over all pixels
-		for (int y = 0; y < height; ++y) {
-			for (int x = 0; x < width; ++x) {
-				Ray ray = camera.castRay(x, y); // Cast ray through pixel
+	/*
+	 * Render image from scene one row of tiles at a time from the top, giving listener the linear image of
+	 * each band as soon as it is complete. Only one band is held at once, so memory is bounded by the width
+	 * of the image rather than its area. The pixels are the same as those of renderHdr.
+	 */
+	public void renderBands(Scene scene, BandListener listener) throws IOException {
+		stats = new RenderStats(width, height);
+		Camera camera = new Camera(width, height);
+		int tilesX = getTilesX(), tilesY = getTilesY();
+		ForkJoinPool pool = createPool();
+		try {
+			for (int tileY = 0; tileY < tilesY; tileY++) {
+				int top = tileY * TILE_SIZE;
+				AccumulationBuffer band = new AccumulationBuffer(width, Math.min(TILE_SIZE, height - top), top);
+				forEachTile(pool, (tileX, bandY) -> sampleTile(scene, camera, band, tileX, bandY),
+						tileY * tilesX, (tileY + 1) * tilesX);
+				listener.band(band.toHdrImage(), top);
+
+				// Display progress every 10% of bands
+				int done = tileY + 1;
+				if (done * 10 / tilesY != (done - 1) * 10 / tilesY)
+					System.out.println(String.format("%.2f", 100 * done / (float) tilesY) + "% completed");
+			}
+		} finally {
+			releasePool(pool);
+		}
+		stats.finish();
+	}
 
-				// Find ray intersection with focal plane
-				Vector3 intersectionPoint = ray.getDirection().scale(DOF_FOCAL_PLANE / ray.getDirection().z);
+	/*
+	 * Render the linear image from scene as renderHdr does, recording what each tile depends on in
+	 * dependencies, which must have been created for scene and this renderer
+	 */
+	public HdrImage renderRecording(Scene scene, SceneDependencies dependencies) {
+		dependencies.startRecording(scene);
+		this.dependencies = dependencies;
+		try {
+			return renderHdr(scene);
+		} finally {
+			this.dependencies = null;
+			dependencies.stopRecording();
+		}
+	}
 
-				// Initialise RGB value for the pixel
-				ColorRGB linearRGB = new ColorRGB(0);
+	/*
+	 * Render the linear image from scene, an edited version of the scene previous was rendered from with
+	 * dependencies recorded, by tracing only the tiles the edits could have changed and copying the rest
+	 * from previous. The dependencies are updated to describe scene. The pixels are the same as those of
+	 * renderHdr, except that an object whose distance along a ray exactly ties with another's may be
+	 * found in a different order.
+	 */
+	public HdrImage rerender(Scene scene, HdrImage previous, SceneDependencies dependencies) throws IOException {
+		if (!dependencies.matches(this) || previous.getWidth() != width || previous.getHeight() != height) {
+			throw new IllegalArgumentException("dependencies recorded with different settings");
+		}
+		boolean[] affected = dependencies.update(scene);
+		int[] tiles = new int[affected.length];
+		int tileCount = 0;
+		for (int tile = 0; tile < affected.length; tile++) {
+			if (affected[tile]) {
+				tiles[tileCount++] = tile;
+			}
+		}
+		System.out.println("Tracing " + tileCount + " of " + affected.length + " tiles");
 
-				// Cast rays randomly from the camera aperture through the intersection point
-				for (int i = 0; i < DOF_RAY_COUNT; i++){
-					Vector3 origin = new Vector3((-1 + 2 * Math.random()) * DOF_AMOUNT, (-1 + 2 * Math.random()) * DOF_AMOUNT, 0);
-					Vector3 rayDirection = (intersectionPoint.subtract(origin)).normalised();
-					Ray dof_Ray = new Ray(origin, rayDirection);
+		stats = new RenderStats(width, height);
+		Camera camera = new Camera(width, height);
+		AccumulationBuffer buffer = new AccumulationBuffer(width, height);
+		dependencies.startRecording(scene);
+		this.dependencies = dependencies;
+		ForkJoinPool pool = createPool();
+		try {
+			forEachTile(pool, (tileX, tileY) -> sampleTile(scene, camera, buffer, tileX, tileY),
+					Arrays.copyOf(tiles, tileCount));
+		} finally {
+			releasePool(pool);
+			this.dependencies = null;
+			dependencies.stopRecording();
+		}
+		stats.finish();
+
+		// Splice the traced tiles into the previous image
+		HdrImage traced = buffer.toHdrImage();
+		HdrImage image = new HdrImage(width, height);
+		image.copyRegion(previous, 0, 0, width, height);
+		for (int i = 0; i < tileCount; i++) {
+			int x0 = tiles[i] % getTilesX() * TILE_SIZE, y0 = tiles[i] / getTilesX() * TILE_SIZE;
+			image.copyRegion(traced, x0, y0, Math.min(width, x0 + TILE_SIZE), Math.min(height, y0 + TILE_SIZE));
+		}
+		return image;
+	}
+
+	/*
+	 * Render image from scene in passes, doubling the number of depth-of-field rays per pixel each pass
+	 * (1, 2, 4, ...) up to the maximum. Converged pixels are skipped by later passes. The linear image so
+	 * far is given to listener after each pass, which may stop the render early.
+	 */
+	public HdrImage renderProgressive(Scene scene, RenderListener listener) {
 
-					// Add a scaled contribution from tracing the ray
-					ColorRGB colourToAdd = trace(scene, dof_Ray, bounces).scale(1 / (float) DOF_RAY_COUNT);
-					linearRGB = linearRGB.add(colourToAdd);
+		// Set up camera and a buffer to accumulate samples in
+		stats = new RenderStats(width, height);
+		Camera camera = new Camera(width, height);
+		AccumulationBuffer buffer = new AccumulationBuffer(width, height);
+
+		HdrImage image;
+		int passSamples = 1;
+		while (true) {
+			// Bring every unconverged pixel up to the sample count for this pass
+			final int targetSamples = passSamples;
+			forEachTile((tileX, tileY) -> {
+				if (wavefront) {
+					sampleTileWavefront(scene, camera, buffer, tileX, tileY, targetSamples, targetSamples);
+					return;
 				}
+				int xEnd = Math.min(width, (tileX + 1) * TILE_SIZE);
+				int yEnd = Math.min(height, (tileY + 1) * TILE_SIZE);
+				for (int y = tileY * TILE_SIZE; y < yEnd; ++y) {
+					for (int x = tileX * TILE_SIZE; x < xEnd; ++x) {
+						int samples = buffer.getSampleCount(x, y);
+						if (samples < targetSamples && !isConverged(buffer, x, y, getMinDofSamples(scene, camera, x, y))) {
+							samplePixel(scene, camera, buffer, x, y, targetSamples - samples);
+						}
+					}
+				}
+			});
+
+			// Publish the image so far
+			image = buffer.toHdrImage();
+			System.out.println(passSamples + " samples per pixel completed");
+			if (!listener.snapshot(image, passSamples) || passSamples >= maxDofSamples) {
+				stats.finish();
+				return image;
+			}
+			passSamples = Math.min(2 * passSamples, maxDofSamples);
+		}
+	}
 
-				ColorRGB gammaRGB = tonemap( linearRGB );
-				image.setRGB(x, y, gammaRGB.toRGB()); // Set image colour to traced colour
+	/*
+	 * Render a single tile of the image from scene into buffer, exactly as render would. Tiles are numbered
+	 * from the top left, getTileSize pixels square.
+	 */
+	public void renderTile(Scene scene, AccumulationBuffer buffer, int tileX, int tileY) {
+		RenderStats.TileEvent event = stats.beginTile();
+		sampleTile(scene, new Camera(width, height), buffer, tileX, tileY);
+		stats.endTile(event, tileX, tileY);
+	}
+
+	// Sample each pixel of a tile in batches until it converges
+	private void sampleTile(Scene scene, Camera camera, AccumulationBuffer buffer, int tileX, int tileY) {
+		if (wavefront) {
+			sampleTileWavefront(scene, camera, buffer, tileX, tileY, maxDofSamples, DOF_BATCH_SIZE);
+			return;
+		}
+		int xEnd = Math.min(width, (tileX + 1) * TILE_SIZE);
+		int yEnd = Math.min(height, (tileY + 1) * TILE_SIZE);
+		for (int y = tileY * TILE_SIZE; y < yEnd; ++y) {
+			for (int x = tileX * TILE_SIZE; x < xEnd; ++x) {
+				int minSamples = getMinDofSamples(scene, camera, x, y);
+				while (buffer.getSampleCount(x, y) < maxDofSamples && !isConverged(buffer, x, y, minSamples)) {
+					samplePixel(scene, camera, buffer, x, y, DOF_BATCH_SIZE);
+				}
 			}
-			// Display progress every 10 lines
-            if( y % 10 == 0 )
-			    System.out.println(String.format("%.2f", 100 * y / (float) (height - 1)) + "% completed");
 		}
-		return image;
 	}
 
+	public int getWidth() {
+		return width;
+	}
 
-	// Combined tone mapping and display encoding
-	public ColorRGB tonemap( ColorRGB linearRGB ) {
-		double invGamma = 1./2.2;
-		double a = 2;  // controls brightness
-		double b = 1.3; // controls contrast
+	public int getHeight() {
+		return height;
+	}
+
+	public int getTileSize() {
+		return TILE_SIZE;
+	}
+
+	public int getTilesX() {
+		return (width + TILE_SIZE - 1) / TILE_SIZE;
+	}
+
+	public int getTilesY() {
+		return (height + TILE_SIZE - 1) / TILE_SIZE;
+	}
+
+	// Work carried out on a single tile of the image
+	private interface TileWork {
+		void renderTile(int tileX, int tileY);
+	}
+
+	// Run work on every tile, on this thread or on a work-stealing pool if more threads were requested
+	private void forEachTile(TileWork work) {
+		ForkJoinPool pool = createPool();
+		try {
+			forEachTile(pool, work, 0, getTilesX() * getTilesY());
+		} finally {
+			releasePool(pool);
+		}
+	}
+
+	// Create a pool for the requested threads, or null to work on the calling thread
+	private ForkJoinPool createPool() {
+		if (sharedPool != null) {
+			return sharedPool;
+		}
+		return threads == 1 ? null : new ForkJoinPool(threads);
+	}
+
+	// Shut down a pool from createPool, unless it is shared
+	private void releasePool(ForkJoinPool pool) {
+		if (pool != null && pool != sharedPool) {
+			pool.shutdown();
+		}
+	}
 
-		// Sigmoidal tone mapping
-		ColorRGB powRGB = linearRGB.power(b);
-		ColorRGB displayRGB = powRGB.scale( powRGB.add(Math.pow(0.5/a,b)).inv() );
+	// Run work on the tiles numbered row by row from first up to end, on pool unless it is null
+	private void forEachTile(ForkJoinPool pool, TileWork work, int first, int end) {
+		run(pool, new TileTask(work, getTilesX(), null, first, end));
+	}
 
-		// Display encoding - gamma
-		ColorRGB gammaRGB = displayRGB.power( invGamma );
+	// Run work on the tiles with the given numbers, on pool unless it is null
+	private void forEachTile(ForkJoinPool pool, TileWork work, int[] tiles) {
+		run(pool, new TileTask(work, getTilesX(), tiles, 0, tiles.length));
+	}
 
-		return gammaRGB;
+	private void run(ForkJoinPool pool, TileTask task) {
+		if (pool == null) {
+			task.compute();
+		} else if (ForkJoinTask.getPool() == pool) {
+			task.invoke(); // Already on one of its workers, as when rendering frames in parallel
+		} else {
+			pool.invoke(task);
+		}
 	}
 
+	/*
+	 * Run work on a contiguous range of tiles, ordered row by row, or of a list of tile numbers, splitting
+	 * the range in half until single tiles remain so that idle workers can steal the other half.
+	 */
+	private class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final TileWork work;
+		private final int tilesX;
+		private final int[] tiles; // Null for the tiles numbered from to to
+		private final int from, to;
+
+		TileTask(TileWork work, int tilesX, int[] tiles, int from, int to) {
+			this.work = work;
+			this.tilesX = tilesX;
+			this.tiles = tiles;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= 1 || threads == 1) {
+				for (int i = from; i < to; i++) {
+					int tile = tiles == null ? i : tiles[i];
+					RenderStats.TileEvent event = stats.beginTile();
+					if (dependencies != null) {
+						dependencies.beginTile();
+					}
+					work.renderTile(tile % tilesX, tile / tilesX);
+					if (dependencies != null) {
+						dependencies.endTile(tile);
+					}
+					stats.endTile(event, tile % tilesX, tile / tilesX);
+				}
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new TileTask(work, tilesX, tiles, from, mid), new TileTask(work, tilesX, tiles, mid, to));
+			}
+		}
+	}
+
+	/*
+	 * Estimate the diameter in pixels of the circle of confusion at the surface seen through pixel (x, y),
+	 * and from it the number of depth-of-field rays needed before the pixel may be considered converged.
+	 * Out-of-focus pixels take a batch per pixel of blur, so a small blur cannot converge by chance
+	 * before any ray has reached it.
+	 */
+	private int getMinDofSamples(Scene scene, Camera camera, int x, int y) {
+		RenderStats.count(RenderStats.Counter.PRIMARY_RAYS);
+		RaycastHit centreHit = scene.findClosestIntersection(camera.castRay(x, y));
+		if (centreHit.getObjectHit() == null) {
+			return Math.min(maxDofSamples, DOF_BATCH_SIZE);
+		}
+		double depth = centreHit.getLocation().z;
+		double confusion = 2 * DOF_AMOUNT * Math.abs(depth - DOF_FOCAL_PLANE) / (DOF_FOCAL_PLANE * depth)
+				/ camera.getPixelWidth();
+		return Math.min(maxDofSamples, DOF_BATCH_SIZE * Math.max(1, (int) Math.ceil(confusion)));
+	}
+
+	// Determine whether the standard error of a pixel's mean luminance is within the tolerance
+	private boolean isConverged(AccumulationBuffer buffer, int x, int y, int minSamples) {
+		if (dofTolerance <= 0 || buffer.getSampleCount(x, y) < minSamples) {
+			return false;
+		}
+		double mean = buffer.getMeanLuminance(x, y);
+		return buffer.getStandardError(x, y) <= dofTolerance * Math.max(mean, DOF_MIN_LUMINANCE);
+	}
+
+	/*
+	 * Trace up to count depth-of-field rays from sampled points on the camera aperture through the point
+	 * where the ray through pixel (x, y) meets the focal plane, adding their colours to buffer.
+	 */
+	private void samplePixel(Scene scene, Camera camera, AccumulationBuffer buffer, int x, int y, int count) {
+		long traceStart = RenderStats.startTimer();
+		Vector3 focalPoint = getFocalPoint(camera, x, y);
+
+		// Each sample's sequence depends only on the seed, pixel and sample index
+		Sampler sampler = samplers.get();
+		int first = buffer.getSampleCount(x, y);
+		count = Math.min(count, maxDofSamples - first);
+
+		RayPacket packet = new RayPacket(Math.min(packetSize, Math.max(1, count)));
+		RaycastHit[] hits = new RaycastHit[packet.capacity()];
+		for (int start = first; start < first + count; start += packet.capacity()) {
+			int end = Math.min(first + count, start + packet.capacity());
+
+			// Cast the packet's rays from sampled points on the aperture through the focal point
+			packet.clear();
+			for (int i = start; i < end; i++) {
+				sampler.startSample(x, y, i, maxDofSamples);
+				packet.add(castDofRay(sampler, focalPoint));
+			}
 
+			// Find the primary hits of the whole packet together
+			scene.findClosestIntersections(packet, hits);
+
+			// Shade each ray on its own, with secondary rays traced singly. Restarting the sample leaves the
+			// sampler exactly where it was after choosing the aperture position.
+			for (int i = start; i < end; i++) {
+				sampler.startSample(x, y, i, maxDofSamples);
+				ColorRGB colour = shade(scene, packet.getRay(i - start), hits[i - start], bounces, sampler);
+				buffer.addSample(x, y, colour.r, colour.g, colour.b);
+			}
+		}
+		RenderStats.stopTimer(RenderStats.Counter.TRACE_NANOS, traceStart);
+	}
+
+	/*
+	 * Bring the unconverged pixels of a tile up to targetSamples depth-of-field rays with a wavefront
+	 * tracer, in rounds of at most batchSize rays per pixel. Each round traces the rays of every pixel in
+	 * the tile together, and adds them to the buffer in sample order so that the result matches
+	 * samplePixel.
+	 */
+	private void sampleTileWavefront(Scene scene, Camera camera, AccumulationBuffer buffer, int tileX, int tileY,
+			int targetSamples, int batchSize) {
+		int xStart = tileX * TILE_SIZE, yStart = tileY * TILE_SIZE;
+		int xEnd = Math.min(width, xStart + TILE_SIZE), yEnd = Math.min(height, yStart + TILE_SIZE);
+		int tileWidth = xEnd - xStart;
+		int[] minSamples = new int[tileWidth * (yEnd - yStart)];
+		for (int y = yStart; y < yEnd; ++y) {
+			for (int x = xStart; x < xEnd; ++x) {
+				minSamples[(y - yStart) * tileWidth + x - xStart] = getMinDofSamples(scene, camera, x, y);
+			}
+		}
+
+		WavefrontTracer tracer = getWavefrontTracer();
+		while (true) {
+			// Queue the next batch of every pixel still in need of samples
+			tracer.clear();
+			for (int y = yStart; y < yEnd; ++y) {
+				for (int x = xStart; x < xEnd; ++x) {
+					int samples = buffer.getSampleCount(x, y);
+					if (samples < targetSamples
+							&& !isConverged(buffer, x, y, minSamples[(y - yStart) * tileWidth + x - xStart])) {
+						int end = Math.min(targetSamples, samples + batchSize);
+						for (int i = samples; i < end; i++) {
+							tracer.addSample(x, y, i);
+						}
+					}
+				}
+			}
+			if (tracer.size() == 0) {
+				return;
+			}
+
+			long start = RenderStats.startTimer();
+			double[] colours = tracer.trace(scene, camera);
+			RenderStats.stopTimer(RenderStats.Counter.TRACE_NANOS, start);
+			for (int i = 0; i < tracer.size(); i++) {
+				buffer.addSample(tracer.getX(i), tracer.getY(i), colours[3 * i], colours[3 * i + 1], colours[3 * i + 2]);
+			}
+		}
+	}
+
+	// Get the current thread's wavefront tracer, creating it if it has none for the current settings
+	private WavefrontTracer getWavefrontTracer() {
+		Sampler sampler = samplers.get();
+		WavefrontTracer tracer = tracers.get();
+		if (tracer == null || !tracer.isConfigured(sampler, bounces, shadowRayCount, maxDofSamples)) {
+			tracer = new WavefrontTracer(this, sampler, bounces, shadowRayCount, maxDofSamples);
+			tracers.set(tracer);
+		}
+		return tracer;
+	}
+
+	ColorRGB getBackgroundColor() {
+		return backgroundColor;
+	}
+
+	// Find where the ray through pixel (x, y) meets the focal plane
+	Vector3 getFocalPoint(Camera camera, int x, int y) {
+		Vector3 D = camera.castRay(x, y).getDirection(); // Cast ray through pixel
+		double focalScale = DOF_FOCAL_PLANE / D.z;
+		return new Vector3(D.x * focalScale, D.y * focalScale, D.z * focalScale);
+	}
+
+	// Cast the depth-of-field ray of the sampler's current sample through focalPoint
+	Ray castDofRay(Sampler sampler, Vector3 focalPoint) {
+		RenderStats.count(RenderStats.Counter.DOF_RAYS);
+		double originX = (-1 + 2 * sampler.getApertureX()) * DOF_AMOUNT;
+		double originY = (-1 + 2 * sampler.getApertureY()) * DOF_AMOUNT;
+		double dx = focalPoint.x - originX, dy = focalPoint.y - originY, dz = focalPoint.z;
+		double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
+		return new Ray(new Vector3(originX, originY, 0), new Vector3(dx / length, dy / length, dz / length));
+	}
+
+	// Combined tone mapping and display encoding
+	public ColorRGB tonemap( ColorRGB linearRGB ) {
+		return tonemapper.tonemap(linearRGB);
+	}
 }
@@ -0,0 +1,34 @@
+package tick1;
+
+/*
+ * Source of sample values for the renderer's random decisions. Each depth-of-field sample of a pixel
+ * has an aperture position, and within it sets of points (such as soft-shadow positions in a light)
+ * can be drawn so that an implementation may spread them evenly over the unit cube.
+ * Each thread uses its own instance, so implementations need not be thread-safe.
+ */
+public interface Sampler {
+
+	// Begin sample number sample (of sampleCount) of pixel (x, y)
+	void startSample(int x, int y, int sample, int sampleCount);
+
+	// Get the next independent value for the current sample, in the range [0, 1)
+	double next();
+
+	// Get the position of the current sample on the camera aperture, each coordinate in [0, 1)
+	double getApertureX();
+
+	double getApertureY();
+
+	// Begin a new set of count points in the unit cube
+	void startSet(int count);
+
+	// Get a coordinate (0, 1 or 2) of point index of the current set, in [0, 1). Points depend only on the
+	// set and index, not on which other points have been requested.
+	double getSetPoint(int index, int dimension);
+
+	// Get how far through the current sample's sequence the sampler is, to continue it later with resume
+	long getPosition();
+
+	// Continue sample number sample of pixel (x, y) from a position returned by getPosition
+	void resume(int x, int y, int sample, int sampleCount, long position);
+}
@@ -1,43 +1,184 @@
 package tick1;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 public class Scene {
 
 	// A list of 3D objects to be rendered
 	private List<SceneObject> objects;
 
-	// A list of point light sources
+	// A list of point light sources, and a hierarchy over them for sampling, built when first needed
 	private List<PointLight> pointLights;
+	private volatile LightHierarchy lightHierarchy;
 
 	// The color of the ambient light in the scene
 	private ColorRGB ambientLight;
 
+	// Acceleration structure over bounded objects, and the unbounded objects (e.g. planes) it excludes.
+	// Null until buildAccelerationStructure is called, in which case objects are scanned linearly
+	private BoundingVolumeHierarchy bvh;
+	private List<SceneObject> unboundedObjects;
+
+	// A hierarchy over some of the bounded objects shared with other scenes, or null, which bvh excludes
+	private BoundingVolumeHierarchy sharedBvh;
+
 	public Scene() {
 		objects = new LinkedList<SceneObject>();
-		pointLights = new LinkedList<PointLight>();
+		pointLights = new ArrayList<PointLight>();
 		ambientLight = new ColorRGB(1);
 	}
 
 	public void addObject(SceneObject object) {
 		objects.add(object);
+		bvh = null; // Any existing hierarchy no longer covers every object
+		sharedBvh = null;
 	}
 
-	// Find the closest intersection of given ray with an object in the scene
-	public RaycastHit findClosestIntersection(Ray ray) {
-		RaycastHit closestHit = new RaycastHit(); // initially no intersection
+	public List<SceneObject> getObjects() {
+		return objects;
+	}
 
-		// Loop over objects and find closest intersection
+	// Build a bounding volume hierarchy over the objects, to be called once the scene is complete
+	public void buildAccelerationStructure() {
+		buildAccelerationStructure(null);
+	}
+
+	/*
+	 * Build the acceleration structure, reusing shared, a hierarchy over some of this scene's objects (the
+	 * same instances) built once for several scenes, such as the objects that stay still through the frames
+	 * of an animation. Only the remaining objects get a hierarchy of their own. Shared may be null.
+	 */
+	public void buildAccelerationStructure(BoundingVolumeHierarchy shared) {
+		Set<SceneObject> sharedObjects = Collections.newSetFromMap(new IdentityHashMap<SceneObject, Boolean>());
+		if (shared != null) {
+			sharedObjects.addAll(shared.getObjects());
+		}
+		List<SceneObject> boundedObjects = new ArrayList<SceneObject>();
+		unboundedObjects = new ArrayList<SceneObject>();
 		for (SceneObject object : objects) {
-			RaycastHit trialHit = object.intersectionWith(ray);
-			if (trialHit.getDistance() < closestHit.getDistance()) {
-				closestHit = trialHit;
+			if (sharedObjects.remove(object)) {
+				continue;
+			} else if (object.getBoundingBox() != null) {
+				boundedObjects.add(object);
+			} else {
+				unboundedObjects.add(object);
 			}
 		}
+		if (!sharedObjects.isEmpty()) {
+			throw new IllegalArgumentException("shared hierarchy holds objects not in the scene");
+		}
+		bvh = new BoundingVolumeHierarchy(boundedObjects);
+		sharedBvh = shared;
+	}
+
+	// Find the closest intersection of given ray with an object in the scene
+	public RaycastHit findClosestIntersection(Ray ray) {
+		// Loop over objects not in the hierarchy and find closest intersection
+		RaycastHit closestHit = findClosestIntersection(ray, bvh != null ? unboundedObjects : objects);
+
+		// Look for anything closer in the hierarchy
+		if (bvh != null) {
+			closestHit = bvh.findClosestIntersection(ray, closestHit);
+		}
+		if (sharedBvh != null) {
+			closestHit = sharedBvh.findClosestIntersection(ray, closestHit);
+		}
+		SceneDependencies.recordRay(ray, closestHit);
 		return closestHit;
 	}
 
+	// Find the closest intersection for every ray in packet, writing them to hits
+	public void findClosestIntersections(RayPacket packet, RaycastHit[] hits) {
+		for (int i = 0; i < packet.size(); i++) {
+			hits[i] = findClosestIntersection(packet.getRay(i), bvh != null ? unboundedObjects : objects);
+		}
+		if (bvh != null) {
+			bvh.findClosestIntersections(packet, hits);
+		}
+		if (sharedBvh != null) {
+			sharedBvh.findClosestIntersections(packet, hits);
+		}
+		if (SceneDependencies.isRecording()) {
+			for (int i = 0; i < packet.size(); i++) {
+				SceneDependencies.recordRay(packet.getRay(i), hits[i]);
+			}
+		}
+	}
+
+	/*
+	 * Find the closest intersection of ray with one of the given objects, by testing the distance to each
+	 * in turn and only describing the closest as a RaycastHit
+	 */
+	private RaycastHit findClosestIntersection(Ray ray, List<SceneObject> candidates) {
+		Vector3 O = ray.getOrigin();
+		Vector3 D = ray.getDirection();
+		SceneObject closestObject = null;
+		double closestDistance = Double.POSITIVE_INFINITY; // initially no intersection
+
+		RenderStats.add(RenderStats.Counter.INTERSECTION_TESTS, candidates.size());
+		for (SceneObject object : candidates) {
+			double distance = object.intersectionDistance(O.x, O.y, O.z, D.x, D.y, D.z);
+			if (distance < closestDistance) {
+				closestDistance = distance;
+				closestObject = object;
+			}
+		}
+		return closestObject == null ? new RaycastHit() : new RaycastHit(closestObject, closestDistance, ray);
+	}
+
+	// Determine whether any object blocks ray within maxDistance, stopping at the first one found
+	public boolean occluded(Ray ray, double maxDistance) {
+		Vector3 O = ray.getOrigin();
+		Vector3 D = ray.getDirection();
+		return occluded(O.x, O.y, O.z, D.x, D.y, D.z, maxDistance);
+	}
+
+	// Occlusion test for the ray with origin (ox, oy, oz) and direction (dx, dy, dz)
+	public boolean occluded(double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance) {
+		SceneObject occluder = findOccluder(ox, oy, oz, dx, dy, dz, maxDistance);
+		SceneDependencies.recordShadowRay(ox, oy, oz, dx, dy, dz, maxDistance, occluder);
+		return occluder != null;
+	}
+
+	// Find the first object found blocking the ray within maxDistance, or null if none does
+	private SceneObject findOccluder(double ox, double oy, double oz, double dx, double dy, double dz,
+			double maxDistance) {
+		long[] counts = RenderStats.getPendingCounts();
+		if (counts != null) {
+			counts[RenderStats.Counter.SHADOW_RAYS.ordinal()]++;
+		}
+		if (bvh == null) {
+			int tests = 0;
+			for (SceneObject object : objects) {
+				tests++;
+				if (object.occluded(ox, oy, oz, dx, dy, dz, maxDistance)) {
+					RenderStats.add(counts, RenderStats.Counter.INTERSECTION_TESTS, tests);
+					return object;
+				}
+			}
+			RenderStats.add(counts, RenderStats.Counter.INTERSECTION_TESTS, tests);
+			return null;
+		}
+
+		for (int i = 0; i < unboundedObjects.size(); i++) {
+			if (unboundedObjects.get(i).occluded(ox, oy, oz, dx, dy, dz, maxDistance)) {
+				RenderStats.add(counts, RenderStats.Counter.INTERSECTION_TESTS, i + 1);
+				return unboundedObjects.get(i);
+			}
+		}
+		RenderStats.add(counts, RenderStats.Counter.INTERSECTION_TESTS, unboundedObjects.size());
+		SceneObject occluder = bvh.findOccluder(ox, oy, oz, dx, dy, dz, maxDistance);
+		if (occluder == null && sharedBvh != null) {
+			occluder = sharedBvh.findOccluder(ox, oy, oz, dx, dy, dz, maxDistance);
+		}
+		return occluder;
+	}
+
 	public ColorRGB getAmbientLighting() {
 		return ambientLight;
 	}
@@ -56,6 +197,17 @@ public class Scene {
 
 	public void addPointLight(PointLight pointLight) {
 		pointLights.add(pointLight);
+		lightHierarchy = null; // Any existing hierarchy no longer covers every light
+	}
+
+	// Get a hierarchy over the point lights for choosing among them at a shading point
+	public LightHierarchy getLightHierarchy() {
+		LightHierarchy hierarchy = lightHierarchy;
+		if (hierarchy == null) {
+			hierarchy = new LightHierarchy(pointLights);
+			lightHierarchy = hierarchy;
+		}
+		return hierarchy;
 	}
 
 }
@@ -0,0 +1,600 @@
+package tick1;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * What each tile of a render depends on, recorded while the render runs, so that after the scene is
+ * edited only the tiles an edit could have changed need tracing again (see Renderer.rerender).
+ *
+ * Every ray cast through the scene while a tile is recorded adds the object it hit to the tile's objects
+ * (or, for a shadow ray, the object that blocked it to its occluders), and the cells of a coarse grid
+ * over the scene that it passed through to the tile's cells. Each shading point adds the lights it
+ * considered. Objects and lights are compared between scenes by value, so an edit is seen as the removal
+ * of the old object or light and the addition of the new one, except that an object whose shape and
+ * place are unchanged is seen as restyled:
+ *  - a restyled object can only change tiles whose rays hit it
+ *  - a removed object can only change tiles whose rays hit it or were blocked by it
+ *  - an added object can only change tiles whose rays passed through a cell its bounding box overlaps,
+ *    or that left the grid if the box extends beyond it; an unbounded object may change any tile
+ *  - a removed light can only change tiles that considered it, while any other change to the lighting
+ *    changes every shaded tile, as does any change to the lights once they are sampled from a hierarchy
+ *
+ * Lights and objects are identified by their index in the scene, and by a key holding their value (and
+ * a digest of their bump map's contents), which is all that is kept of the scene rendered. The grid stays the one fitted to
+ * the first scene, so that the cells of tiles recorded at different times agree.
+ */
+public class SceneDependencies {
+
+	private static final int MAGIC = 0x52544450; // "RTDP"
+	private static final int VERSION = 2;
+
+	// Cells along each side of the grid
+	private static final int GRID_SIZE = 16;
+
+	// Space left around the scene on every side of the grid, as a fraction of the scene's largest extent
+	private static final double GRID_MARGIN = 0.25;
+
+	// Number of renders recording, and the tile each thread is recording
+	private static volatile int recorders = 0;
+	private static final ThreadLocal<Recording> current = new ThreadLocal<Recording>();
+
+	private final String settings;
+	private final int lightBudget;
+	private final double[] gridMin, cellSize;
+
+	private String ambientKey;
+	private String[] lightKeys, objectKeys, shapeKeys;
+	private final TileDependencies[] tiles;
+
+	// Index of each object in the scene being recorded
+	private Map<SceneObject, Integer> objectIndices;
+
+	// A tile being recorded, on the thread recording it, with space to walk the grid in
+	private static class Recording {
+		final SceneDependencies dependencies;
+		final TileDependencies tile = new TileDependencies();
+		final double[] origin = new double[3], direction = new double[3];
+		final double[] nextCrossing = new double[3], crossingInterval = new double[3];
+		final int[] cell = new int[3], step = new int[3];
+
+		// Cells passed through, as a bit per cell, moved into the tile once it is complete
+		final long[] cells = new long[GRID_SIZE * GRID_SIZE * GRID_SIZE / 64];
+
+		Recording(SceneDependencies dependencies) {
+			this.dependencies = dependencies;
+		}
+	}
+
+	// Start recording the dependencies of scene, as rendered by renderer, with the grid fitted to it
+	public SceneDependencies(Scene scene, Renderer renderer) throws IOException {
+		settings = renderer.getSettings();
+		lightBudget = renderer.getLightBudget();
+		tiles = new TileDependencies[renderer.getTilesX() * renderer.getTilesY()];
+		ambientKey = getAmbientKey(scene);
+		lightKeys = getLightKeys(scene);
+		objectKeys = getObjectKeys(scene);
+		shapeKeys = getShapeKeys(scene);
+
+		// Fit the grid around the objects, lights and camera, keeping the cells roughly cubic
+		double[] min = { 0, 0, 0 }, max = { 0, 0, 0 };
+		for (PointLight light : scene.getPointLights()) {
+			include(min, max, light.getPosition());
+		}
+		for (SceneObject object : scene.getObjects()) {
+			BoundingBox box = object.getBoundingBox();
+			if (box != null) {
+				include(min, max, box.getMin());
+				include(min, max, box.getMax());
+			}
+		}
+		double extent = Math.max(max[0] - min[0], Math.max(max[1] - min[1], max[2] - min[2]));
+		double margin = extent > 0 ? GRID_MARGIN * extent : 1;
+		gridMin = new double[3];
+		cellSize = new double[3];
+		for (int axis = 0; axis < 3; axis++) {
+			gridMin[axis] = min[axis] - margin;
+			cellSize[axis] = (max[axis] - min[axis] + 2 * margin) / GRID_SIZE;
+		}
+	}
+
+	private SceneDependencies(String settings, int lightBudget, double[] gridMin, double[] cellSize, int tileCount) {
+		this.settings = settings;
+		this.lightBudget = lightBudget;
+		this.gridMin = gridMin;
+		this.cellSize = cellSize;
+		this.tiles = new TileDependencies[tileCount];
+	}
+
+	// Determine whether these dependencies were recorded with the same settings as renderer uses
+	public boolean matches(Renderer renderer) {
+		return settings.equals(renderer.getSettings());
+	}
+
+	static boolean isRecording() {
+		return recorders > 0;
+	}
+
+	// Start recording renders of scene, whose tiles are then recorded between beginTile and endTile
+	synchronized void startRecording(Scene scene) {
+		objectIndices = new IdentityHashMap<SceneObject, Integer>();
+		int index = 0;
+		for (SceneObject object : scene.getObjects()) {
+			objectIndices.put(object, index++);
+		}
+		recorders++;
+	}
+
+	synchronized void stopRecording() {
+		recorders--;
+		objectIndices = null;
+	}
+
+	// Begin recording a tile, numbered row by row from the top left, on the current thread
+	void beginTile() {
+		current.set(new Recording(this));
+	}
+
+	void endTile(int tile) {
+		Recording recording = current.get();
+		recording.tile.cells.or(BitSet.valueOf(recording.cells));
+		tiles[tile] = recording.tile;
+		current.remove();
+	}
+
+	// Record a ray cast through the scene and its closest hit
+	static void recordRay(Ray ray, RaycastHit hit) {
+		if (recorders == 0) {
+			return;
+		}
+		Recording recording = current.get();
+		if (recording == null) {
+			return;
+		}
+		if (hit.getObjectHit() != null) {
+			recording.tile.objects.set(recording.dependencies.objectIndices.get(hit.getObjectHit()));
+		}
+		Vector3 O = ray.getOrigin();
+		Vector3 D = ray.getDirection();
+		recording.dependencies.addCells(recording, O.x, O.y, O.z, D.x, D.y, D.z, hit.getDistance());
+	}
+
+	// Record a shadow ray cast towards a light maxDistance away, and the object that blocked it, if any
+	static void recordShadowRay(double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance,
+			SceneObject occluder) {
+		if (recorders == 0) {
+			return;
+		}
+		Recording recording = current.get();
+		if (recording == null) {
+			return;
+		}
+		if (occluder != null) {
+			recording.tile.occluders.set(recording.dependencies.objectIndices.get(occluder));
+		}
+		recording.dependencies.addCells(recording, ox, oy, oz, dx, dy, dz, maxDistance);
+	}
+
+	// Record that a surface was lit, with the ambient light and a choice among the lights
+	static void recordShading() {
+		if (recorders == 0) {
+			return;
+		}
+		Recording recording = current.get();
+		if (recording != null) {
+			recording.tile.shaded = true;
+		}
+	}
+
+	// Record that a shading point considered the light with index light
+	static void recordLight(int light) {
+		if (recorders == 0) {
+			return;
+		}
+		Recording recording = current.get();
+		if (recording != null) {
+			recording.tile.lights.set(light);
+		}
+	}
+
+	/*
+	 * Add the cells passed through by the ray (ox, oy, oz) + t(dx, dy, dz) for t from 0 to length to the
+	 * tile being recorded, marking it as escaping if any part lies outside the grid. The cells are walked in
+	 * order along the ray, one face crossing at a time.
+	 */
+	private void addCells(Recording recording, double ox, double oy, double oz, double dx, double dy, double dz,
+			double length) {
+		TileDependencies tile = recording.tile;
+		double[] origin = recording.origin, direction = recording.direction;
+		origin[0] = ox;
+		origin[1] = oy;
+		origin[2] = oz;
+		direction[0] = dx;
+		direction[1] = dy;
+		direction[2] = dz;
+
+		// Clip the ray to the grid
+		double start = 0, end = length;
+		for (int axis = 0; axis < 3; axis++) {
+			double low = gridMin[axis], high = low + GRID_SIZE * cellSize[axis];
+			if (direction[axis] == 0) {
+				if (origin[axis] < low || origin[axis] > high) {
+					start = Double.POSITIVE_INFINITY;
+				}
+				continue;
+			}
+			double near = (low - origin[axis]) / direction[axis];
+			double far = (high - origin[axis]) / direction[axis];
+			start = Math.max(start, Math.min(near, far));
+			end = Math.min(end, Math.max(near, far));
+		}
+		if (start > 0 || end < length) {
+			tile.escapes = true;
+		}
+		if (start > end) {
+			return;
+		}
+
+		int[] cell = recording.cell, step = recording.step;
+		double[] nextCrossing = recording.nextCrossing, crossingInterval = recording.crossingInterval;
+		for (int axis = 0; axis < 3; axis++) {
+			double position = (origin[axis] + start * direction[axis] - gridMin[axis]) / cellSize[axis];
+			cell[axis] = Math.max(0, Math.min(GRID_SIZE - 1, (int) Math.floor(position)));
+			if (direction[axis] > 0) {
+				step[axis] = 1;
+				crossingInterval[axis] = cellSize[axis] / direction[axis];
+				nextCrossing[axis] = (gridMin[axis] + (cell[axis] + 1) * cellSize[axis] - origin[axis]) / direction[axis];
+			} else if (direction[axis] < 0) {
+				step[axis] = -1;
+				crossingInterval[axis] = -cellSize[axis] / direction[axis];
+				nextCrossing[axis] = (gridMin[axis] + cell[axis] * cellSize[axis] - origin[axis]) / direction[axis];
+			} else {
+				step[axis] = 0;
+				nextCrossing[axis] = Double.POSITIVE_INFINITY;
+			}
+		}
+		while (true) {
+			int index = getCell(cell[0], cell[1], cell[2]);
+			recording.cells[index >>> 6] |= 1L << index;
+			int axis = nextCrossing[0] < nextCrossing[1] ? (nextCrossing[0] < nextCrossing[2] ? 0 : 2)
+					: (nextCrossing[1] < nextCrossing[2] ? 1 : 2);
+			if (nextCrossing[axis] > end) {
+				return;
+			}
+			cell[axis] += step[axis];
+			if (cell[axis] < 0 || cell[axis] >= GRID_SIZE) {
+				return;
+			}
+			nextCrossing[axis] += crossingInterval[axis];
+		}
+	}
+
+	private static int getCell(int x, int y, int z) {
+		return (z * GRID_SIZE + y) * GRID_SIZE + x;
+	}
+
+	/*
+	 * Compare scene with the one last recorded, returning which tiles it could render differently. The
+	 * dependencies of those tiles are discarded, to be recorded again when they are rendered, and those of
+	 * the rest are renumbered to match scene.
+	 */
+	boolean[] update(Scene scene) throws IOException {
+		String newAmbientKey = getAmbientKey(scene);
+		String[] newLightKeys = getLightKeys(scene), newObjectKeys = getObjectKeys(scene);
+		String[] newShapeKeys = getShapeKeys(scene);
+		int[] lightIndices = createUnpaired(lightKeys.length), objectIndices = createUnpaired(objectKeys.length);
+		pair(lightKeys, newLightKeys, lightIndices);
+		pair(objectKeys, newObjectKeys, objectIndices);
+		BitSet unchangedObjects = findPaired(objectIndices);
+		pair(shapeKeys, newShapeKeys, objectIndices);
+		BitSet restyledObjects = findPaired(objectIndices);
+		restyledObjects.andNot(unchangedObjects);
+
+		BitSet removedLights = findPaired(lightIndices);
+		removedLights.flip(0, lightIndices.length);
+		BitSet removedObjects = findPaired(objectIndices);
+		removedObjects.flip(0, objectIndices.length);
+		boolean lightAdded = newLightKeys.length - lightKeys.length + removedLights.cardinality() > 0;
+		boolean lightsSampled = lightKeys.length > lightBudget || newLightKeys.length > lightBudget;
+		boolean shadingChanged = !newAmbientKey.equals(ambientKey) || lightAdded
+				|| (lightsSampled && !removedLights.isEmpty());
+		BitSet hitObjects = (BitSet) removedObjects.clone();
+		hitObjects.or(restyledObjects);
+
+		// Find the cells covered by each added object: those not paired with an old one
+		boolean[] paired = new boolean[newObjectKeys.length];
+		for (int index : objectIndices) {
+			if (index >= 0) {
+				paired[index] = true;
+			}
+		}
+		List<BitSet> addedCells = new ArrayList<BitSet>();
+		boolean addedOutside = false, addedUnbounded = false;
+		int index = 0;
+		for (SceneObject object : scene.getObjects()) {
+			if (!paired[index++]) {
+				BoundingBox box = object.getBoundingBox();
+				if (box == null) {
+					addedUnbounded = true;
+				} else {
+					addedCells.add(getCells(box));
+					addedOutside |= !isInsideGrid(box);
+				}
+			}
+		}
+
+		boolean[] affected = new boolean[tiles.length];
+		for (int i = 0; i < tiles.length; i++) {
+			TileDependencies tile = tiles[i];
+			affected[i] = tile == null || addedUnbounded || tile.objects.intersects(hitObjects)
+					|| tile.occluders.intersects(removedObjects) || tile.lights.intersects(removedLights) || (shadingChanged && tile.shaded)
+					|| (addedOutside && tile.escapes);
+			for (int j = 0; j < addedCells.size() && !affected[i]; j++) {
+				affected[i] = tile.cells.intersects(addedCells.get(j));
+			}
+			if (affected[i]) {
+				tiles[i] = null;
+			} else {
+				tile.renumber(objectIndices, lightIndices);
+			}
+		}
+
+		ambientKey = newAmbientKey;
+		lightKeys = newLightKeys;
+		objectKeys = newObjectKeys;
+		shapeKeys = newShapeKeys;
+		return affected;
+	}
+
+	private static int[] createUnpaired(int count) {
+		int[] partners = new int[count];
+		Arrays.fill(partners, -1);
+		return partners;
+	}
+
+	/*
+	 * Pair each old key not yet paired with an equal new key not yet paired, recording the index of each
+	 * old key's partner in partners, in which -1 marks one without. Equal keys are paired in order.
+	 */
+	private static void pair(String[] oldKeys, String[] newKeys, int[] partners) {
+		boolean[] taken = new boolean[newKeys.length];
+		for (int partner : partners) {
+			if (partner >= 0) {
+				taken[partner] = true;
+			}
+		}
+		Map<String, ArrayDeque<Integer>> unpaired = new HashMap<String, ArrayDeque<Integer>>();
+		for (int i = 0; i < newKeys.length; i++) {
+			if (!taken[i]) {
+				unpaired.computeIfAbsent(newKeys[i], key -> new ArrayDeque<Integer>()).add(i);
+			}
+		}
+		for (int i = 0; i < oldKeys.length; i++) {
+			ArrayDeque<Integer> candidates = unpaired.get(oldKeys[i]);
+			if (partners[i] < 0 && candidates != null && !candidates.isEmpty()) {
+				partners[i] = candidates.poll();
+			}
+		}
+	}
+
+	private static BitSet findPaired(int[] partners) {
+		BitSet paired = new BitSet();
+		for (int i = 0; i < partners.length; i++) {
+			if (partners[i] >= 0) {
+				paired.set(i);
+			}
+		}
+		return paired;
+	}
+
+	// Cells overlapping box, extended by half a cell so rays grazing a cell boundary are not missed
+	private BitSet getCells(BoundingBox box) {
+		int[] low = new int[3], high = new int[3];
+		double[] min = { box.getMin().x, box.getMin().y, box.getMin().z };
+		double[] max = { box.getMax().x, box.getMax().y, box.getMax().z };
+		for (int axis = 0; axis < 3; axis++) {
+			low[axis] = Math.max(0, (int) Math.floor((min[axis] - gridMin[axis]) / cellSize[axis] - 0.5));
+			high[axis] = Math.min(GRID_SIZE - 1, (int) Math.floor((max[axis] - gridMin[axis]) / cellSize[axis] + 0.5));
+		}
+		BitSet cells = new BitSet();
+		for (int z = low[2]; z <= high[2]; z++) {
+			for (int y = low[1]; y <= high[1]; y++) {
+				for (int x = low[0]; x <= high[0]; x++) {
+					cells.set(getCell(x, y, z));
+				}
+			}
+		}
+		return cells;
+	}
+
+	private boolean isInsideGrid(BoundingBox box) {
+		double[] min = { box.getMin().x, box.getMin().y, box.getMin().z };
+		double[] max = { box.getMax().x, box.getMax().y, box.getMax().z };
+		for (int axis = 0; axis < 3; axis++) {
+			if (min[axis] < gridMin[axis] || max[axis] > gridMin[axis] + GRID_SIZE * cellSize[axis]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void include(double[] min, double[] max, Vector3 point) {
+		double[] coordinates = { point.x, point.y, point.z };
+		for (int axis = 0; axis < 3; axis++) {
+			min[axis] = Math.min(min[axis], coordinates[axis]);
+			max[axis] = Math.max(max[axis], coordinates[axis]);
+		}
+	}
+
+	private static String getAmbientKey(Scene scene) {
+		ColorRGB ambient = scene.getAmbientLighting();
+		return ambient.r + "," + ambient.g + "," + ambient.b;
+	}
+
+	private static String[] getLightKeys(Scene scene) throws IOException {
+		List<PointLight> lights = scene.getPointLights();
+		String[] keys = new String[lights.size()];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = hash(CompiledScene.encodeLight(lights.get(i)), null);
+		}
+		return keys;
+	}
+
+	// Keys of the objects, including a digest of their bump maps, which the compiled form only names
+	private static String[] getObjectKeys(Scene scene) throws IOException {
+		String[] keys = new String[scene.getObjects().size()];
+		int i = 0;
+		for (SceneObject object : scene.getObjects()) {
+			byte[] bumpMap = null;
+			if (object instanceof BumpySphere) {
+				String path = TextureCache.getCanonicalPath(((BumpySphere) object).getBumpMapFile());
+				bumpMap = TextureCache.getShared().getDigest(path);
+				if (bumpMap == null) {
+					bumpMap = new byte[0];
+				}
+			}
+			keys[i++] = hash(CompiledScene.encodeObject(object), bumpMap);
+		}
+		return keys;
+	}
+
+	// Keys of the shape and place of the objects alone, which decide what rays hit
+	private static String[] getShapeKeys(Scene scene) {
+		String[] keys = new String[scene.getObjects().size()];
+		int i = 0;
+		for (SceneObject object : scene.getObjects()) {
+			if (object instanceof Sphere) { // Including bumpy spheres, whose bumps only change their shading
+				Sphere sphere = (Sphere) object;
+				keys[i] = "sphere " + describe(sphere.getPosition()) + " " + sphere.getRadius();
+			} else if (object instanceof Plane) {
+				Plane plane = (Plane) object;
+				keys[i] = "plane " + describe(plane.getPoint()) + " " + describe(plane.getNormal());
+			} else {
+				keys[i] = "object " + i; // Unknown shapes are never paired
+			}
+			i++;
+		}
+		return keys;
+	}
+
+	private static String describe(Vector3 v) {
+		return v.x + "," + v.y + "," + v.z;
+	}
+
+	// SHA-256 hash of data followed by extra, if not null, in hexadecimal
+	private static String hash(byte[] data, byte[] extra) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 unavailable", e); // Required of every Java platform
+		}
+		digest.update(data);
+		if (extra != null) {
+			digest.update(extra);
+		}
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest()) {
+			key.append(String.format("%02x", b));
+		}
+		return key.toString();
+	}
+
+	public void write(File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(settings);
+			out.writeInt(lightBudget);
+			for (int axis = 0; axis < 3; axis++) {
+				out.writeDouble(gridMin[axis]);
+				out.writeDouble(cellSize[axis]);
+			}
+			out.writeUTF(ambientKey);
+			writeKeys(out, lightKeys);
+			writeKeys(out, objectKeys);
+			writeKeys(out, shapeKeys);
+			out.writeInt(tiles.length);
+			for (TileDependencies tile : tiles) {
+				out.writeBoolean(tile != null);
+				if (tile != null) {
+					tile.write(out);
+				}
+			}
+		}
+	}
+
+	// Read dependencies written by write, or return null if the file is missing or from another version
+	public static SceneDependencies read(File file) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+				return null;
+			}
+			String settings = readString(in);
+			int lightBudget = in.getInt();
+			double[] gridMin = new double[3], cellSize = new double[3];
+			for (int axis = 0; axis < 3; axis++) {
+				gridMin[axis] = in.getDouble();
+				cellSize[axis] = in.getDouble();
+			}
+			String ambientKey = readString(in);
+			String[] lightKeys = readKeys(in), objectKeys = readKeys(in), shapeKeys = readKeys(in);
+			SceneDependencies dependencies = new SceneDependencies(settings, lightBudget, gridMin, cellSize, in.getInt());
+			dependencies.ambientKey = ambientKey;
+			dependencies.lightKeys = lightKeys;
+			dependencies.objectKeys = objectKeys;
+			dependencies.shapeKeys = shapeKeys;
+			for (int i = 0; i < dependencies.tiles.length; i++) {
+				if (in.get() != 0) {
+					dependencies.tiles[i] = TileDependencies.read(in);
+				}
+			}
+			return dependencies;
+		} catch (RuntimeException e) { // Truncated or corrupt file
+			throw new IOException("corrupt dependencies " + file + ": " + e);
+		}
+	}
+
+	private static void writeKeys(DataOutputStream out, String[] keys) throws IOException {
+		out.writeInt(keys.length);
+		for (String key : keys) {
+			out.writeUTF(key);
+		}
+	}
+
+	private static String[] readKeys(ByteBuffer in) {
+		String[] keys = new String[in.getInt()];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = readString(in);
+		}
+		return keys;
+	}
+
+	// Read a string written by DataOutputStream.writeUTF, which is plain ASCII for everything written here
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getShort() & 0xffff];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -1,77 +1,123 @@
 package tick1;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 public class SceneLoader {
-	// Loads our scene from an XML file
+	// Loads our scene from an XML file, streaming through its elements without building a document
 	
 	private Scene scene;
 
 	public SceneLoader(String filename) {
+		this(filename, true);
+	}
+
+	// Load a scene, leaving its acceleration structure unbuilt if the caller will build its own
+	public SceneLoader(String filename, boolean accelerated) {
 		scene = new Scene();
 
-		Element document = null;
-		try {
-			document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(filename))
-					.getDocumentElement();
-		} catch (ParserConfigurationException e) {
-			assert false;
+		try (InputStream input = new BufferedInputStream(new FileInputStream(filename))) {
+			XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(input);
+			try {
+				if (reader.nextTag() != XMLStreamConstants.START_ELEMENT || !reader.getLocalName().equals("scene"))
+					throw new RuntimeException("scene file does not contain a scene element");
+
+				// Add every element inside the scene element as it is read
+				while (reader.hasNext()) {
+					if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+						addElement(reader);
+					}
+				}
+			} finally {
+				reader.close();
+			}
 		} catch (IOException e) {
 			throw new RuntimeException("error reading file:\n" + e.getMessage());
-		} catch (SAXException e) {
+		} catch (XMLStreamException e) {
 			throw new RuntimeException("error loading XML.");
 		}
 
-		if (document.getNodeName() != "scene")
-			throw new RuntimeException("scene file does not contain a scene element");
-
-		NodeList elements = document.getElementsByTagName("*");
-		for (int i = 0; i < elements.getLength(); ++i) {
-			Element element = (Element) elements.item(i);
-			switch (element.getNodeName()) {
-
-			case "sphere":
-				Sphere sphere = new Sphere(getPosition(element), getDouble(element, "radius", 1), getColour(element),
-						getDouble(element, "kD", 0.8), getDouble(element, "kS", 1.2),
-						getDouble(element, "alphaS", 10), getDouble(element, "reflectivity", 0.3)
-						);
-				scene.addObject(sphere);
-				break;
-				
-			case "bumpy-sphere":
-				BumpySphere bumpySphere = new BumpySphere(getPosition(element), getDouble(element, "radius", 1), getColour(element), getString(element, "bump-map"));
-				scene.addObject(bumpySphere);
-				break;
-
-			case "plane":
-				Plane plane = new Plane(getPosition(element), getNormal(element), getColour(element),
-						getDouble(element, "kD", 0.8), getDouble(element, "kS", 1.2),
-						getDouble(element, "alphaS", 10), getDouble(element, "reflectivity", 0.3)
-						);
-				scene.addObject(plane);
-				break;
-
-			case "point-light":
-				PointLight light = new PointLight(getPosition(element), getColour(element),
-						getDouble(element, "intensity", 100));
-				scene.addPointLight(light);
-				break;
-
-			case "ambient-light":
-				scene.setAmbientLight(getColour(element).scale(getDouble(element, "intensity", 1)));
-				break;
-
-			default:
-				throw new RuntimeException("unknown object tag: " + element.getNodeName());
+		if (accelerated) {
+			scene.buildAccelerationStructure();
+		}
+	}
+
+	/*
+	 * Load a scene, reusing the compiled copy in cacheDirectory if it is up to date with the XML file.
+	 * Otherwise the XML file is parsed and a compiled copy written for next time.
+	 */
+	public static Scene loadCached(String filename, File cacheDirectory) {
+		return loadCached(filename, cacheDirectory, true);
+	}
+
+	// Load a scene through the cache, leaving its acceleration structure unbuilt unless accelerated is set
+	public static Scene loadCached(String filename, File cacheDirectory, boolean accelerated) {
+		File source = new File(filename);
+		File compiled = new File(cacheDirectory, CompiledScene.getCacheName(source));
+		try {
+			Scene scene = CompiledScene.read(source, compiled, accelerated);
+			if (scene != null) {
+				return scene;
 			}
+		} catch (IOException e) {
+			System.err.println("Ignoring unreadable compiled scene: " + e.getMessage());
+		}
+
+		Scene scene = new SceneLoader(filename, accelerated).getScene();
+		try {
+			cacheDirectory.mkdirs();
+			CompiledScene.write(scene, source, compiled);
+		} catch (IOException e) {
+			System.err.println("Could not write compiled scene: " + e.getMessage());
+		}
+		return scene;
+	}
+
+	// Add the object described by the element at the reader's position to the scene
+	private void addElement(XMLStreamReader element) {
+		switch (element.getLocalName()) {
+
+		case "sphere":
+			Sphere sphere = new Sphere(getPosition(element), getDouble(element, "radius", 1), getColour(element),
+					getDouble(element, "kD", 0.8), getDouble(element, "kS", 1.2),
+					getDouble(element, "alphaS", 10), getDouble(element, "reflectivity", 0.3)
+					);
+			scene.addObject(sphere);
+			break;
+			
+		case "bumpy-sphere":
+			BumpySphere bumpySphere = new BumpySphere(getPosition(element), getDouble(element, "radius", 1), getColour(element), getString(element, "bump-map"));
+			scene.addObject(bumpySphere);
+			break;
+
+		case "plane":
+			Plane plane = new Plane(getPosition(element), getNormal(element), getColour(element),
+					getDouble(element, "kD", 0.8), getDouble(element, "kS", 1.2),
+					getDouble(element, "alphaS", 10), getDouble(element, "reflectivity", 0.3)
+					);
+			scene.addObject(plane);
+			break;
+
+		case "point-light":
+			PointLight light = new PointLight(getPosition(element), getColour(element),
+					getDouble(element, "intensity", 100));
+			scene.addPointLight(light);
+			break;
+
+		case "ambient-light":
+			scene.setAmbientLight(getColour(element).scale(getDouble(element, "intensity", 1)));
+			break;
+
+		default:
+			throw new RuntimeException("unknown object tag: " + element.getLocalName());
 		}
 	}
 
@@ -79,23 +125,23 @@ public class SceneLoader {
 		return scene;
 	}
 
-	private Vector3 getPosition(Element tag) {
+	private Vector3 getPosition(XMLStreamReader tag) {
 		double x = getDouble(tag, "x", 0);
 		double y = getDouble(tag, "y", 0);
 		double z = getDouble(tag, "z", 0);
 		return new Vector3(x, y, z);
 	}
 
-	private Vector3 getNormal(Element tag) {
+	private Vector3 getNormal(XMLStreamReader tag) {
 		double x = getDouble(tag, "nx", 0);
 		double y = getDouble(tag, "ny", 0);
 		double z = getDouble(tag, "nz", 0);
 		return new Vector3(x, y, z).normalised();
 	}
 
-	private ColorRGB getColour(Element tag) {
+	private ColorRGB getColour(XMLStreamReader tag) {
 
-		String hexString = tag.getAttribute("colour");
+		String hexString = getString(tag, "colour");
 		double red = Integer.parseInt(hexString.substring(1, 3), 16) / 255.0;
 		double green = Integer.parseInt(hexString.substring(3, 5), 16) / 255.0;
 		double blue = Integer.parseInt(hexString.substring(5, 7), 16) / 255.0;
@@ -103,16 +149,18 @@ public class SceneLoader {
 		return new ColorRGB(red, green, blue);
 	}
 
-	private double getDouble(Element tag, String attribute, double fallback) {
+	private double getDouble(XMLStreamReader tag, String attribute, double fallback) {
 		try {
-			return Double.parseDouble(tag.getAttribute(attribute));
+			return Double.parseDouble(getString(tag, attribute));
 		} catch (NumberFormatException e) {
 			return fallback;
 		}
 	}
 	
-	private String getString(Element tag, String attribute){
-		return tag.getAttribute(attribute);
+	// Get the value of an attribute, or the empty string if it is absent
+	private String getString(XMLStreamReader tag, String attribute){
+		String value = tag.getAttributeValue(null, attribute);
+		return value != null ? value : "";
 	}
 
 }
@@ -19,9 +19,40 @@ public abstract class SceneObject {
 	// Intersect this object with ray
 	public abstract RaycastHit intersectionWith(Ray ray);
 
+	/*
+	 * Distance along the ray with origin (ox, oy, oz) and direction (dx, dy, dz) to its nearest
+	 * intersection with this object, or infinity if it misses. Subclasses override this to test
+	 * candidates without building a RaycastHit.
+	 */
+	public double intersectionDistance(double ox, double oy, double oz, double dx, double dy, double dz) {
+		Ray ray = new Ray(new Vector3(ox, oy, oz), new Vector3(dx, dy, dz));
+		return intersectionWith(ray).getDistance();
+	}
+
+	// Determine whether ray hits this object at a distance of at most maxDistance
+	public boolean occluded(Ray ray, double maxDistance) {
+		Vector3 O = ray.getOrigin();
+		Vector3 D = ray.getDirection();
+		return occluded(O.x, O.y, O.z, D.x, D.y, D.z, maxDistance);
+	}
+
+	/*
+	 * Occlusion test for the ray with origin (ox, oy, oz) and direction (dx, dy, dz). Subclasses
+	 * override this to avoid allocating while tracing shadow rays.
+	 */
+	public boolean occluded(double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance) {
+		Ray ray = new Ray(new Vector3(ox, oy, oz), new Vector3(dx, dy, dz));
+		return intersectionWith(ray).getDistance() <= maxDistance;
+	}
+
 	// Get normal to object at position
 	public abstract Vector3 getNormalAt(Vector3 position);
 
+	// Get an axis-aligned box enclosing the object, or null if it is unbounded
+	public BoundingBox getBoundingBox() {
+		return null;
+	}
+
 	public ColorRGB getColour() {
 		return colour;
 	}
@@ -0,0 +1,314 @@
+package tick1;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/*
+ * An animation rendered in one process, either from one scene per frame or from keyframe scenes whose
+ * object and light positions are interpolated linearly for the frames between them. Objects that are
+ * the same in every frame are shared by the scenes of all frames, along with a bounding volume hierarchy
+ * over them built once, so each frame only builds a hierarchy over what changes. The scenes given need
+ * no acceleration structure of their own (see SceneLoader). Bump maps are decoded once through the
+ * shared TextureCache.
+ *
+ * Frames are rendered together on one work-stealing pool, each split into tiles as usual, so the tiles of
+ * the next frames keep every core busy while the last tiles of a frame finish. At most FRAMES_PER_THREAD
+ * frames per thread are in progress at once, to bound the memory their images take.
+ */
+public class Sequence {
+
+	private static final int FRAMES_PER_THREAD = 2;
+
+	// The keyframes, or every frame, with their objects in order, the shared ones being the same instances
+	private final List<Scene> scenes;
+	private final List<List<SceneObject>> sceneObjects = new ArrayList<List<SceneObject>>();
+	private final boolean interpolated;
+	private final int frameCount;
+
+	// Hierarchy over the bounded objects shared by every frame
+	private final BoundingVolumeHierarchy sharedHierarchy;
+
+	private Sequence(List<Scene> scenes, boolean interpolated, int frameCount) {
+		this.scenes = scenes;
+		this.interpolated = interpolated;
+		this.frameCount = frameCount;
+		for (Scene scene : scenes) {
+			sceneObjects.add(new ArrayList<SceneObject>(scene.getObjects()));
+		}
+
+		// Every scene includes the shared objects of the first, and the hierarchy covers the bounded ones
+		Set<SceneObject> shared = createIdentitySet(sceneObjects.get(0));
+		for (List<SceneObject> objects : sceneObjects) {
+			shared.retainAll(createIdentitySet(objects));
+		}
+		List<SceneObject> boundedObjects = new ArrayList<SceneObject>();
+		for (SceneObject object : sceneObjects.get(0)) {
+			if (shared.contains(object) && object.getBoundingBox() != null) {
+				boundedObjects.add(object);
+			}
+		}
+		sharedHierarchy = new BoundingVolumeHierarchy(boundedObjects);
+	}
+
+	private static Set<SceneObject> createIdentitySet(List<SceneObject> objects) {
+		Set<SceneObject> set = Collections.newSetFromMap(new IdentityHashMap<SceneObject, Boolean>());
+		set.addAll(objects);
+		return set;
+	}
+
+	/*
+	 * Create a sequence with a frame for each scene. An object is shared when an identical one appears in
+	 * every scene, however many objects come before it.
+	 */
+	public static Sequence fromFrames(List<Scene> frames) throws IOException {
+		if (frames.isEmpty()) {
+			throw new IllegalArgumentException("a sequence needs at least one frame");
+		}
+
+		// Count each object, by its compiled form, in every frame, keeping the least count as the number shared
+		Map<String, Integer> sharedCounts = null;
+		List<List<String>> frameKeys = new ArrayList<List<String>>();
+		for (Scene frame : frames) {
+			List<String> keys = new ArrayList<String>();
+			Map<String, Integer> counts = new HashMap<String, Integer>();
+			for (SceneObject object : frame.getObjects()) {
+				String key = new String(CompiledScene.encodeObject(object), StandardCharsets.ISO_8859_1);
+				keys.add(key);
+				counts.merge(key, 1, Integer::sum);
+			}
+			frameKeys.add(keys);
+			if (sharedCounts == null) {
+				sharedCounts = counts;
+			} else {
+				sharedCounts.replaceAll((key, count) -> Math.min(count, counts.getOrDefault(key, 0)));
+			}
+		}
+
+		// Replace the shared objects of every frame with the instances from the first
+		Map<String, List<SceneObject>> instances = new HashMap<String, List<SceneObject>>();
+		List<String> firstKeys = frameKeys.get(0);
+		int index = 0;
+		for (SceneObject object : frames.get(0).getObjects()) {
+			instances.computeIfAbsent(firstKeys.get(index++), key -> new ArrayList<SceneObject>()).add(object);
+		}
+		List<Scene> scenes = new ArrayList<Scene>();
+		for (int i = 0; i < frames.size(); i++) {
+			Map<String, ArrayDeque<SceneObject>> unused = new HashMap<String, ArrayDeque<SceneObject>>();
+			for (Map.Entry<String, Integer> entry : sharedCounts.entrySet()) {
+				List<SceneObject> candidates = instances.get(entry.getKey());
+				unused.put(entry.getKey(), new ArrayDeque<SceneObject>(candidates.subList(0, entry.getValue())));
+			}
+			Scene frame = frames.get(i);
+			Scene scene = createScene(frame);
+			index = 0;
+			for (SceneObject object : frame.getObjects()) {
+				ArrayDeque<SceneObject> candidates = unused.get(frameKeys.get(i).get(index++));
+				scene.addObject(candidates == null || candidates.isEmpty() ? object : candidates.poll());
+			}
+			scenes.add(scene);
+		}
+		return new Sequence(scenes, false, scenes.size());
+	}
+
+	/*
+	 * Create a sequence of frameCount frames moving evenly through the keyframes, the first frame showing
+	 * the first keyframe and the last the last. The keyframes must have the same objects and lights of
+	 * the same types in the same order; the positions of those that differ are interpolated, while every
+	 * other property is taken from the preceding keyframe. An object is shared when it is identical in
+	 * every keyframe.
+	 */
+	public static Sequence fromKeyframes(List<Scene> keyframes, int frameCount) throws IOException {
+		if (keyframes.isEmpty() || frameCount < 1) {
+			throw new IllegalArgumentException("a sequence needs at least one keyframe and frame");
+		}
+		List<List<SceneObject>> objects = new ArrayList<List<SceneObject>>();
+		for (int k = 0; k < keyframes.size(); k++) {
+			Scene keyframe = keyframes.get(k);
+			objects.add(new ArrayList<SceneObject>(keyframe.getObjects()));
+			if (keyframe.getObjects().size() != objects.get(0).size()
+					|| keyframe.getPointLights().size() != keyframes.get(0).getPointLights().size()) {
+				throw new IllegalArgumentException("keyframe " + k + " has different objects or lights to the first");
+			}
+			for (int i = 0; i < objects.get(0).size(); i++) {
+				if (objects.get(k).get(i).getClass() != objects.get(0).get(i).getClass()) {
+					throw new IllegalArgumentException("object " + i + " of keyframe " + k + " changes type");
+				}
+			}
+		}
+
+		// Objects identical in every keyframe are shared as the instance from the first
+		List<SceneObject> firstObjects = objects.get(0);
+		boolean[] same = new boolean[firstObjects.size()];
+		for (int i = 0; i < same.length; i++) {
+			byte[] first = CompiledScene.encodeObject(firstObjects.get(i));
+			same[i] = true;
+			for (int k = 1; k < keyframes.size() && same[i]; k++) {
+				same[i] = Arrays.equals(CompiledScene.encodeObject(objects.get(k).get(i)), first);
+			}
+		}
+		List<Scene> scenes = new ArrayList<Scene>();
+		for (int k = 0; k < keyframes.size(); k++) {
+			Scene scene = createScene(keyframes.get(k));
+			for (int i = 0; i < same.length; i++) {
+				scene.addObject(same[i] ? firstObjects.get(i) : objects.get(k).get(i));
+			}
+			scenes.add(scene);
+		}
+		return new Sequence(scenes, true, frameCount);
+	}
+
+	// Create a scene with the lighting of scene, but none of its objects
+	private static Scene createScene(Scene scene) {
+		Scene copy = new Scene();
+		copy.setAmbientLight(scene.getAmbientLighting());
+		for (PointLight light : scene.getPointLights()) {
+			copy.addPointLight(light);
+		}
+		return copy;
+	}
+
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	// Create the scene of a frame, numbered from 0
+	public Scene getFrame(int frame) {
+		if (!interpolated) {
+			Scene scene = createScene(scenes.get(frame));
+			for (SceneObject object : sceneObjects.get(frame)) {
+				scene.addObject(object);
+			}
+			scene.buildAccelerationStructure(sharedHierarchy);
+			return scene;
+		}
+
+		// Find the keyframes either side of the frame, and how far it is between them
+		int last = scenes.size() - 1;
+		double time = frameCount == 1 ? 0 : (double) frame * last / (frameCount - 1);
+		int k = Math.min((int) time, Math.max(0, last - 1));
+		double u = last == 0 ? 0 : time - k;
+		Scene before = scenes.get(k), after = scenes.get(Math.min(k + 1, last));
+
+		Scene scene = new Scene();
+		scene.setAmbientLight(before.getAmbientLighting());
+		List<PointLight> beforeLights = before.getPointLights(), afterLights = after.getPointLights();
+		for (int i = 0; i < beforeLights.size(); i++) {
+			PointLight light = beforeLights.get(i);
+			scene.addPointLight(new PointLight(interpolate(light.getPosition(), afterLights.get(i).getPosition(), u),
+					light.getColour(), light.getIntensity()));
+		}
+		List<SceneObject> beforeObjects = sceneObjects.get(k), afterObjects = sceneObjects.get(Math.min(k + 1, last));
+		for (int i = 0; i < beforeObjects.size(); i++) {
+			scene.addObject(interpolate(beforeObjects.get(i), afterObjects.get(i), u));
+		}
+		scene.buildAccelerationStructure(sharedHierarchy);
+		return scene;
+	}
+
+	// Place a copy of object a fraction u of the way from a to b, or return a or b if it is at either
+	private static SceneObject interpolate(SceneObject a, SceneObject b, double u) {
+		if (a == b || u == 0) {
+			return a;
+		} else if (u == 1) {
+			return b;
+		} else if (a instanceof BumpySphere) {
+			BumpySphere sphere = (BumpySphere) a;
+			return new BumpySphere(interpolate(sphere.getPosition(), ((Sphere) b).getPosition(), u), sphere.getRadius(),
+					sphere.getColour(), sphere.getBumpMapFile());
+		} else if (a instanceof Sphere) {
+			Sphere sphere = (Sphere) a;
+			return new Sphere(interpolate(sphere.getPosition(), ((Sphere) b).getPosition(), u), sphere.getRadius(),
+					sphere.getColour(), sphere.getPhong_kD(), sphere.getPhong_kS(), sphere.getPhong_alpha(),
+					sphere.getReflectivity());
+		} else if (a instanceof Plane) {
+			Plane plane = (Plane) a;
+			return new Plane(interpolate(plane.getPoint(), ((Plane) b).getPoint(), u), plane.getNormal(),
+					plane.getColour(), plane.getPhong_kD(), plane.getPhong_kS(), plane.getPhong_alpha(),
+					plane.getReflectivity());
+		}
+		return a;
+	}
+
+	private static Vector3 interpolate(Vector3 a, Vector3 b, double u) {
+		return u == 0 ? a : u == 1 ? b : a.add(b.subtract(a).scale(u));
+	}
+
+	/*
+	 * Render every frame, each with a new renderer from renderers, on the given number of threads, giving
+	 * each image to listener as soon as its frame is complete
+	 */
+	public void render(Supplier<Renderer> renderers, int threads, FrameListener listener) throws IOException {
+		if (threads == 1) {
+			for (int frame = 0; frame < frameCount; frame++) {
+				renderFrame(frame, renderers.get(), listener);
+			}
+			return;
+		}
+
+		// Start each frame as soon as one of the window in progress finishes, so no thread waits on another
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		Semaphore window = new Semaphore(FRAMES_PER_THREAD * threads);
+		List<ForkJoinTask<Void>> frames = new ArrayList<ForkJoinTask<Void>>();
+		try {
+			for (int frame = 0; frame < frameCount && !hasFailed(frames); frame++) {
+				window.acquire();
+				int number = frame;
+				frames.add(pool.submit(() -> {
+					try {
+						Renderer renderer = renderers.get();
+						renderer.setPool(pool);
+						renderFrame(number, renderer, listener);
+						return null;
+					} finally {
+						window.release();
+					}
+				}));
+			}
+			for (ForkJoinTask<Void> frame : frames) {
+				frame.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while rendering frames");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("frame failed", cause);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// Determine whether any frame submitted so far has failed, after which no more are started
+	private static boolean hasFailed(List<ForkJoinTask<Void>> frames) {
+		for (ForkJoinTask<Void> frame : frames) {
+			if (frame.isCompletedAbnormally()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void renderFrame(int frame, Renderer renderer, FrameListener listener) throws IOException {
+		HdrImage image = renderer.renderHdr(getFrame(frame));
+		listener.frame(frame, image, renderer.getStats());
+	}
+}
@@ -0,0 +1,68 @@
+package tick1;
+
+/*
+ * Low-discrepancy sampler based on the first three dimensions of the Sobol sequence. Aperture
+ * positions use dimensions 0 and 1 indexed by sample number, and set points use dimensions 0 to 2
+ * indexed by point number. Each pixel and each set applies its own random digital shift (XOR
+ * scrambling), which keeps the sequence's stratification while decorrelating neighbours.
+ */
+public class SobolSampler extends RandomSampler {
+
+	// Generating matrices as 32 direction numbers per dimension
+	private static final int[][] DIRECTIONS = new int[3][32];
+
+	static {
+		// Dimension 0 is the van der Corput sequence in base 2
+		for (int k = 0; k < 32; k++) {
+			DIRECTIONS[0][k] = 1 << (31 - k);
+		}
+
+		// Dimension 1 uses the primitive polynomial x + 1 with m = 1
+		int[] m = new int[33];
+		m[1] = 1;
+		for (int k = 2; k <= 32; k++) {
+			m[k] = (m[k - 1] << 1) ^ m[k - 1];
+		}
+		for (int k = 1; k <= 32; k++) {
+			DIRECTIONS[1][k - 1] = m[k] << (32 - k);
+		}
+
+		// Dimension 2 uses the primitive polynomial x^2 + x + 1 with m = 1, 3
+		m[1] = 1;
+		m[2] = 3;
+		for (int k = 3; k <= 32; k++) {
+			m[k] = (m[k - 1] << 1) ^ (m[k - 2] << 2) ^ m[k - 2];
+		}
+		for (int k = 1; k <= 32; k++) {
+			DIRECTIONS[2][k - 1] = m[k] << (32 - k);
+		}
+	}
+
+	public SobolSampler(long seed) {
+		super(seed);
+	}
+
+	@Override
+	public void startSample(int x, int y, int sample, int sampleCount) {
+		super.startSample(x, y, sample, sampleCount);
+		long pixelKey = getPixelKey();
+		apertureX = sobol(0, sample, (int) mix(pixelKey));
+		apertureY = sobol(1, sample, (int) mix(pixelKey + GOLDEN_GAMMA));
+	}
+
+	@Override
+	public double getSetPoint(int index, int dimension) {
+		return sobol(dimension, index, (int) mix(setKey + dimension));
+	}
+
+	// Coordinate of point index in the given dimension, XOR-ed with a scrambling value
+	private static double sobol(int dimension, int index, int scramble) {
+		int result = scramble;
+		for (int k = 0; index != 0; k++, index >>>= 1) {
+			if ((index & 1) != 0) {
+				result ^= DIRECTIONS[dimension][k];
+			}
+		}
+		return (result & 0xFFFFFFFFL) * 0x1.0p-32;
+	}
+}
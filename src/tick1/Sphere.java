@@ -18,6 +18,10 @@ public class Sphere extends SceneObject {
 	// The radius of the sphere in world units
 	private double radius;
 
+	public double getRadius() {
+		return radius;
+	}
+
 	public Sphere(Vector3 position, double radius, ColorRGB colour) {
 		this.position = position;
 		this.radius = radius;
@@ -50,51 +54,64 @@ public class Sphere extends SceneObject {
 		Vector3 O = ray.getOrigin();
 		Vector3 D = ray.getDirection();
 
-		// Get sphere parameters
-		Vector3 C = position;
-		double r = radius;
+		double distance = intersectionDistance(O.x, O.y, O.z, D.x, D.y, D.z);
 
-		// Calculate quadratic coefficients
-		double a = D.dot(D);
-		double b = 2 * D.dot(O.subtract(C));
-		double c = (O.subtract(C)).dot(O.subtract(C)) - Math.pow(r, 2);
-
-		// Determine if ray and sphere intersect - if not return an empty RaycastHit
-		double det = b * b - 4 * a * c;
-		if (det < 0) {
+		// If the ray misses, or both points are behind the camera, return an empty RaycastHit
+		if (distance == Double.POSITIVE_INFINITY) {
 			return new RaycastHit();
 		}
 
-		// If so, work out any point of intersection
-		else {
-			double distLow = (-b - Math.pow(det, 0.5)) / 2.0;
-			double distHigh = (-b + Math.pow(det, 0.5)) / 2.0;
+		// Otherwise return a RaycastHit for the nearest solution in front of the camera, leaving its
+		// location and normal until they are asked for
+		return new RaycastHit(this, distance, ray);
+	}
 
-			// If both points are behind the camera, return an empty RaycastHit
-			if ((distLow <= 0) & (distHigh <= 0)) {
-				return new RaycastHit();
-			}
+	/*
+	 * Distance to the nearest intersection in front of the ray with origin (ox, oy, oz) and
+	 * direction (dx, dy, dz), or infinity if there is none. Works in primitives throughout.
+	 */
+	@Override
+	public double intersectionDistance(double ox, double oy, double oz, double dx, double dy, double dz) {
 
-			// If one is positive and one negative, return a RaycastHit for the positive solution
-			else if ((distLow <= 0) & (distHigh > 0)) {
-				Vector3 location = ray.evaluateAt(distHigh);
-				Vector3 normal = this.getNormalAt(location);
+		// Offset of ray origin from the sphere centre, O - C
+		double ocx = ox - position.x, ocy = oy - position.y, ocz = oz - position.z;
 
-				return new RaycastHit(this, distHigh, location, normal);
-			}
+		// Calculate quadratic coefficients
+		double a = dx * dx + dy * dy + dz * dz;
+		double b = 2 * (dx * ocx + dy * ocy + dz * ocz);
+		double c = (ocx * ocx + ocy * ocy + ocz * ocz) - radius * radius;
 
-			// Otherwise return the solution nearer to the camera
-			else {
-				Vector3 location = ray.evaluateAt(distLow);
-				Vector3 normal = this.getNormalAt(location);
+		// Determine if ray and sphere intersect
+		double det = b * b - 4 * a * c;
+		if (det < 0) {
+			return Double.POSITIVE_INFINITY;
+		}
 
-				return new RaycastHit(this, distLow, location, normal);
-			}
+		// If so, return the nearer solution unless it is behind the camera
+		double root = Math.sqrt(det);
+		double distLow = (-b - root) / 2.0;
+		if (distLow > 0) {
+			return distLow;
 		}
+		double distHigh = (-b + root) / 2.0;
+		return distHigh > 0 ? distHigh : Double.POSITIVE_INFINITY;
+	}
+
+	// Determine whether a ray hits the sphere within maxDistance, without building a RaycastHit
+	@Override
+	public boolean occluded(double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance) {
+		return intersectionDistance(ox, oy, oz, dx, dy, dz) <= maxDistance;
 	}
 
 	// Get normal to surface at position
 	public Vector3 getNormalAt(Vector3 position) {
 		return position.subtract(this.position).normalised();
 	}
+
+	// Get the box enclosing the sphere
+	@Override
+	public BoundingBox getBoundingBox() {
+		double r = Math.abs(radius);
+		return new BoundingBox(position.subtract(new Vector3(r)), position.add(new Vector3(r)));
+	}
 }
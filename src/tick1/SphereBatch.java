@@ -0,0 +1,63 @@
+package tick1;
+
+/*
+ * Spheres stored as structure-of-arrays (centre coordinates and squared radii in primitive arrays), so
+ * that one ray can be tested against a run of consecutive spheres in a single loop with no virtual
+ * calls or allocation. The loop body is branch-free, which lets the JIT vectorise it across lanes.
+ * Entries that are not spheres are kept as placeholders that never report a hit.
+ */
+public class SphereBatch {
+
+	private final double[] centreX, centreY, centreZ, radiusSquared;
+	private final boolean[] isSphere;
+
+	// Build a batch over objects, in order
+	public SphereBatch(SceneObject[] objects) {
+		int n = objects.length;
+		centreX = new double[n];
+		centreY = new double[n];
+		centreZ = new double[n];
+		radiusSquared = new double[n];
+		isSphere = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			if (objects[i] instanceof Sphere) {
+				Sphere sphere = (Sphere) objects[i];
+				centreX[i] = sphere.getPosition().x;
+				centreY[i] = sphere.getPosition().y;
+				centreZ[i] = sphere.getPosition().z;
+				radiusSquared[i] = sphere.getRadius() * sphere.getRadius();
+				isSphere[i] = true;
+			} else {
+				radiusSquared[i] = Double.NaN; // Makes the lane report a miss
+			}
+		}
+	}
+
+	// Determine whether entry i is a sphere, rather than a placeholder that must be tested separately
+	public boolean isSphere(int i) {
+		return isSphere[i];
+	}
+
+	/*
+	 * Intersect the ray with origin (ox, oy, oz) and direction (dx, dy, dz) with entries
+	 * [first, first + count), writing to distances[0, count) the distance to the nearest intersection in
+	 * front of the ray, or infinity. Matches Sphere.intersectionDistance exactly.
+	 */
+	public void intersect(int first, int count, double ox, double oy, double oz, double dx, double dy, double dz,
+			double[] distances) {
+		double a = dx * dx + dy * dy + dz * dz;
+		for (int i = 0; i < count; i++) {
+			int s = first + i;
+			double ocx = ox - centreX[s], ocy = oy - centreY[s], ocz = oz - centreZ[s];
+			double b = 2 * (dx * ocx + dy * ocy + dz * ocz);
+			double c = (ocx * ocx + ocy * ocy + ocz * ocz) - radiusSquared[s];
+			double det = b * b - 4 * a * c;
+
+			double root = Math.sqrt(Math.max(det, 0));
+			double distLow = (-b - root) / 2.0;
+			double distHigh = (-b + root) / 2.0;
+			double distance = distLow > 0 ? distLow : distHigh > 0 ? distHigh : Double.POSITIVE_INFINITY;
+			distances[i] = det >= 0 ? distance : Double.POSITIVE_INFINITY;
+		}
+	}
+}
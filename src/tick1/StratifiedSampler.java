@@ -0,0 +1,60 @@
+package tick1;
+
+/*
+ * Jittered stratified sampler. Aperture positions of a pixel fall in distinct cells of a square grid,
+ * visited in a scrambled order so that a pixel that stops early is still evenly covered. Set points
+ * are Latin hypercube samples: along each axis every point lies in a different one of count strata.
+ */
+public class StratifiedSampler extends RandomSampler {
+
+	// Irrational fractions of the set size used as strides, one per dimension
+	private static final double[] STRIDE_FRACTIONS = { 0.6180339887, 0.7548776662, 0.5698402910 };
+
+	public StratifiedSampler(long seed) {
+		super(seed);
+	}
+
+	@Override
+	public void startSample(int x, int y, int sample, int sampleCount) {
+		super.startSample(x, y, sample, sampleCount);
+
+		// Pick this sample's cell of an m by m grid covering the aperture
+		int m = (int) Math.ceil(Math.sqrt(sampleCount));
+		int cells = m * m;
+		int cell = scramble(sample, cells, 0.6180339887, getPixelKey());
+		apertureX = (cell % m + apertureX) / m;
+		apertureY = (cell / m + apertureY) / m;
+	}
+
+	@Override
+	public double getSetPoint(int index, int dimension) {
+		// Each dimension visits the strata in a differently scrambled order
+		int stratum = scramble(index, setCount, STRIDE_FRACTIONS[dimension], mix(setKey + dimension));
+		return (stratum + getSetValue(index, dimension)) / setCount;
+	}
+
+	/*
+	 * Map index onto a permutation of [0, count), stepping by a stride coprime to count that is close to
+	 * fraction * count, starting at an offset given by key.
+	 */
+	private static int scramble(int index, int count, double fraction, long key) {
+		if (count <= 1) {
+			return 0;
+		}
+		int stride = Math.max(1, (int) Math.round(fraction * count));
+		while (gcd(stride, count) != 1) {
+			stride++;
+		}
+		int offset = (int) Math.floorMod(key, (long) count);
+		return (int) ((index * (long) stride + offset) % count);
+	}
+
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+}
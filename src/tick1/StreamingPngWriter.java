@@ -0,0 +1,272 @@
+package tick1;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/*
+ * Writes an 8-bit RGB PNG whose rows are supplied from the top a band at a time, so that the whole
+ * image never needs to be held in memory. Rows are filtered and deflated on a background thread while
+ * the caller produces the next band, and at most QUEUED_BANDS bands wait to be encoded before writeRows
+ * blocks. The compressed stream is written out in IDAT chunks as it is produced.
+ *
+ * The stream goes to a temporary file beside the target, which only replaces it once the image is
+ * complete, so a render that fails part way leaves any earlier image in place rather than a truncated one.
+ */
+public class StreamingPngWriter implements Closeable {
+
+	private static final byte[] SIGNATURE = { (byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n' };
+
+	// Compressed bytes per IDAT chunk
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	// Bands that may wait to be encoded
+	private static final int QUEUED_BANDS = 2;
+
+	// Queued in place of a band once every row has been written
+	private static final int[] END = new int[0];
+
+	private final File file, temporary;
+	private final DataOutputStream out;
+	private final int width, height;
+	private int rowsWritten;
+
+	private final BlockingQueue<int[]> bands = new ArrayBlockingQueue<int[]>(QUEUED_BANDS);
+	private final Thread encoder;
+	private volatile IOException failure;
+
+	// Compressed data waiting to be written as a chunk
+	private final byte[] chunk = new byte[CHUNK_SIZE];
+	private int chunkLength;
+
+	public StreamingPngWriter(File file, int width, int height) throws IOException {
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), CHUNK_SIZE + 12));
+		try {
+			out.write(SIGNATURE);
+			byte[] header = new byte[13];
+			writeInt(header, 0, width);
+			writeInt(header, 4, height);
+			header[8] = 8; // Bits per sample
+			header[9] = 2; // Truecolour, without alpha
+			writeChunk("IHDR", header, header.length); // Zero compression, filter and interlace methods follow
+		} catch (IOException e) {
+			out.close();
+			temporary.delete();
+			throw e;
+		}
+
+		encoder = new Thread(this::encode, "png encoder");
+		encoder.setDaemon(true);
+		encoder.start();
+	}
+
+	// Queue whole rows of pixels, as 0xRRGGBB, to follow those already written
+	public void writeRows(int[] pixels) throws IOException {
+		int rows = pixels.length / width;
+		if (rows * width != pixels.length || rowsWritten + rows > height) {
+			throw new IllegalArgumentException("expected whole rows within the image");
+		}
+		checkFailure();
+		put(pixels);
+		rowsWritten += rows;
+	}
+
+	/*
+	 * Wait for every row to be encoded, then finish the file and move it into place. If any row failed to
+	 * encode or was never written, the temporary file is deleted instead.
+	 */
+	@Override
+	public void close() throws IOException {
+		boolean complete = false;
+		try {
+			try {
+				put(END);
+				encoder.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while encoding PNG");
+			} finally {
+				out.close();
+			}
+			checkFailure();
+			if (rowsWritten != height) {
+				throw new IOException("PNG closed after " + rowsWritten + " of " + height + " rows");
+			}
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			complete = true;
+		} finally {
+			if (!complete) {
+				temporary.delete();
+			}
+		}
+	}
+
+	private void put(int[] band) throws IOException {
+		try {
+			bands.put(band);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while encoding PNG");
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure != null) {
+			throw new IOException("error encoding PNG: " + failure.getMessage(), failure);
+		}
+	}
+
+	/*
+	 * Encode bands until END is queued. After a failure the remaining bands are discarded rather than
+	 * left in the queue, so that writeRows and close cannot block on it.
+	 */
+	private void encode() {
+		Deflater deflater = new Deflater();
+		byte[] previous = new byte[3 * width], current = new byte[3 * width];
+		byte[][] filtered = new byte[5][1 + 3 * width];
+		try {
+			while (true) {
+				int[] band = bands.take();
+				if (band == END) {
+					break;
+				}
+				if (failure != null) {
+					continue;
+				}
+				try {
+					for (int row = 0; row < band.length / width; row++) {
+						for (int x = 0; x < width; x++) {
+							int pixel = band[row * width + x];
+							current[3 * x] = (byte) (pixel >> 16);
+							current[3 * x + 1] = (byte) (pixel >> 8);
+							current[3 * x + 2] = (byte) pixel;
+						}
+						deflater.setInput(filterRow(current, previous, filtered));
+						deflate(deflater, false);
+						byte[] swap = previous;
+						previous = current;
+						current = swap;
+					}
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			if (failure == null) {
+				deflater.finish();
+				deflate(deflater, true);
+				if (chunkLength > 0) {
+					writeChunk("IDAT", chunk, chunkLength);
+				}
+				writeChunk("IEND", chunk, 0);
+			}
+		} catch (IOException e) {
+			failure = e;
+		} catch (InterruptedException e) {
+			failure = new IOException("interrupted");
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/*
+	 * Compress the deflater's input, writing out each chunk as it fills, until it needs more input or, when
+	 * finishing, until the compressed stream is complete
+	 */
+	private void deflate(Deflater deflater, boolean finish) throws IOException {
+		while (finish ? !deflater.finished() : !deflater.needsInput()) {
+			chunkLength += deflater.deflate(chunk, chunkLength, CHUNK_SIZE - chunkLength);
+			if (chunkLength == CHUNK_SIZE) {
+				writeChunk("IDAT", chunk, chunkLength);
+				chunkLength = 0;
+			}
+		}
+	}
+
+	/*
+	 * Filter a row with each of the five PNG filters, returning the filtered row (led by its filter type)
+	 * with the least sum of absolute differences, the usual estimate of the most compressible
+	 */
+	private static byte[] filterRow(byte[] row, byte[] previous, byte[][] filtered) {
+		byte[] best = null;
+		long bestSum = Long.MAX_VALUE;
+		for (int type = 0; type < filtered.length; type++) {
+			byte[] result = filtered[type];
+			result[0] = (byte) type;
+			long sum = 0;
+			for (int i = 0; i < row.length; i++) {
+				// Same channel of the pixel to the left, above, and above left
+				int a = i >= 3 ? row[i - 3] & 0xff : 0;
+				int b = previous[i] & 0xff;
+				int c = i >= 3 ? previous[i - 3] & 0xff : 0;
+				int predictor;
+				switch (type) {
+				case 0:
+					predictor = 0;
+					break;
+				case 1:
+					predictor = a;
+					break;
+				case 2:
+					predictor = b;
+					break;
+				case 3:
+					predictor = (a + b) >>> 1;
+					break;
+				default:
+					predictor = paeth(a, b, c);
+				}
+				byte value = (byte) (row[i] - predictor);
+				result[i + 1] = value;
+				sum += Math.abs(value);
+			}
+			if (sum < bestSum) {
+				best = result;
+				bestSum = sum;
+			}
+		}
+		return best;
+	}
+
+	// Whichever of a, b and c is closest to a + b - c, preferring them in that order
+	private static int paeth(int a, int b, int c) {
+		int p = a + b - c;
+		int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+		if (pa <= pb && pa <= pc) {
+			return a;
+		}
+		return pb <= pc ? b : c;
+	}
+
+	// Write a chunk of the given type holding the first length bytes of data
+	private void writeChunk(String type, byte[] data, int length) throws IOException {
+		byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+		out.writeInt(length);
+		out.write(typeBytes);
+		out.write(data, 0, length);
+		out.writeInt((int) crc.getValue());
+	}
+
+	private static void writeInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+}
@@ -0,0 +1,129 @@
+package tick1;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Bump maps shared between objects, keyed by canonical file path, so that each image is decoded and
+ * stored once however many objects use it. When the maps held exceed the memory budget, the least
+ * recently requested are dropped; objects already using them keep their reference.
+ *
+ * The cache also holds a digest of the contents of each bump map file it is asked about, for keys that
+ * must change when a map does. A digest is recomputed only when its file's length or modification time
+ * changes, so many objects sharing one map read it once.
+ */
+public class TextureCache {
+
+	// Default memory budget in bytes
+	public static final long DEFAULT_BUDGET = 256L << 20;
+
+	private static final TextureCache shared = new TextureCache(DEFAULT_BUDGET);
+
+	// Cached maps in order of least to most recent access
+	private final LinkedHashMap<String, BumpMap> bumpMaps = new LinkedHashMap<String, BumpMap>(16, 0.75f, true);
+
+	// Digests of bump map files, kept with the length and modification time they were computed at
+	private final Map<String, FileDigest> digests = new HashMap<String, FileDigest>();
+
+	private long budget;
+	private long bytesUsed;
+
+	private static class FileDigest {
+		final long length, lastModified;
+		final byte[] digest;
+
+		FileDigest(long length, long lastModified, byte[] digest) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.digest = digest;
+		}
+	}
+
+	public TextureCache(long budget) {
+		this.budget = budget;
+	}
+
+	// Get the cache shared by every object in the process
+	public static TextureCache getShared() {
+		return shared;
+	}
+
+	// Get the bump map stored in filename, loading it if it is not already cached
+	public synchronized BumpMap getBumpMap(String filename) throws IOException {
+		String key = getCanonicalPath(filename);
+		BumpMap bumpMap = bumpMaps.get(key);
+		if (bumpMap == null) {
+			bumpMap = BumpMap.load(filename);
+			bumpMaps.put(key, bumpMap);
+			bytesUsed += bumpMap.getSizeInBytes();
+			evict();
+		}
+		return bumpMap;
+	}
+
+	// Get the canonical path of a bump map file, under which its map and digest are cached
+	public static String getCanonicalPath(String filename) throws IOException {
+		return new File(filename).getCanonicalPath();
+	}
+
+	// Get the SHA-256 digest of the contents of the file at a canonical path, or null if there is no file
+	public byte[] getDigest(String canonicalPath) throws IOException {
+		File file = new File(canonicalPath);
+		if (!file.isFile()) {
+			return null;
+		}
+		long length = file.length(), lastModified = file.lastModified();
+		synchronized (this) {
+			FileDigest cached = digests.get(canonicalPath);
+			if (cached != null && cached.length == length && cached.lastModified == lastModified) {
+				return cached.digest;
+			}
+		}
+
+		// Hash outside the lock, so other files can be looked up meanwhile
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 unavailable", e); // Required of every Java platform
+		}
+		byte[] buffer = new byte[1 << 16];
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			for (int n; (n = in.read(buffer)) > 0;) {
+				digest.update(buffer, 0, n);
+			}
+		}
+		byte[] result = digest.digest();
+		synchronized (this) {
+			digests.put(canonicalPath, new FileDigest(length, lastModified, result));
+		}
+		return result;
+	}
+
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		evict();
+	}
+
+	public synchronized long getBytesUsed() {
+		return bytesUsed;
+	}
+
+	// Drop least recently used maps until within budget, always keeping the most recent one
+	private void evict() {
+		Iterator<Map.Entry<String, BumpMap>> entries = bumpMaps.entrySet().iterator();
+		while (bytesUsed > budget && bumpMaps.size() > 1) {
+			BumpMap eldest = entries.next().getValue();
+			entries.remove();
+			bytesUsed -= eldest.getSizeInBytes();
+		}
+	}
+}
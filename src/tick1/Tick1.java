@@ -1,8 +1,12 @@
 package tick1;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.imageio.ImageIO;
 
@@ -12,13 +16,28 @@ public class Tick1 {
 	public static final String DEFAULT_OUTPUT = "assets/output.png";
 	
 	public static final int DEFAULT_BOUNCES = 2; // Default number of ray bounces
+	public static final long DEFAULT_SEED = 0; // Default seed for random sampling
+	public static final String DEFAULT_SAMPLER = "sobol"; // Default sampling pattern
+	public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors(); // Default number of render threads
 
-	// Height and width of the output image
-	private static final int WIDTH_PX = 640;
-	private static final int HEIGHT_PX = 480;
+	// Default height and width of the output image
+	public static final int DEFAULT_WIDTH_PX = 640;
+	public static final int DEFAULT_HEIGHT_PX = 480;
 
 	public static void usageError() { // Usage information 
-		System.err.println("USAGE: <tick2> [--input INPUT] [--output OUTPUT] [--bounces BOUNCES]");
+		System.err.println("USAGE: <tick2> [--input INPUT] [--output OUTPUT] [--bounces BOUNCES] [--threads THREADS]"
+				+ " [--width PIXELS] [--height PIXELS]"
+				+ " [--dof-samples MAX_SAMPLES] [--dof-tolerance TOLERANCE] [--progressive SECONDS]"
+				+ " [--seed SEED] [--sampler random|stratified|halton|sobol] [--shadow-rays SHADOW_RAYS]"
+				+ " [--texture-budget MEGABYTES] [--scene-cache DIRECTORY]"
+				+ " [--packet-size RAYS] [--engine recursive|wavefront]"
+				+ " [--min-contribution FRACTION] [--russian-roulette true|false]"
+				+ " [--adaptive-shadows true|false] [--light-budget LIGHTS]"
+				+ " [--coordinator PORT | --worker HOST:PORT]"
+				+ " [--exposure STOPS] [--brightness BRIGHTNESS] [--contrast CONTRAST] [--gamma GAMMA]"
+				+ " [--tonemap PFM_FILE_OR_DIRECTORY] [--stats true|false]"
+				+ " [--render-cache DIRECTORY] [--render-cache-budget MEGABYTES] [--incremental DIRECTORY]"
+				+ " [--sequence SCENE_DIRECTORY | --keyframes SCENE,SCENE,... [--frames FRAMES]]");
 		System.exit(-1);
 	}
 
@@ -28,9 +47,24 @@ public class Tick1 {
 			usageError();
 		}
 		
-		// Parse the input and output filenames from the arguments
+		// Parse the input and output filenames from the arguments, leaving options for the renderer itself
 		String inputSceneFile = DEFAULT_INPUT, output = DEFAULT_OUTPUT;
-		int bounces = DEFAULT_BOUNCES;
+		int threads = DEFAULT_THREADS;
+		File sceneCache = null;
+		File renderCacheDirectory = null;
+		long renderCacheBudget = RenderCache.DEFAULT_BUDGET;
+		File incrementalDirectory = null; // Where the previous render and its dependencies are kept
+		String sequenceDirectory = null; // Scenes to render as the frames of an animation, in name order
+		String keyframes = null; // Comma-separated scenes to interpolate an animation between
+		int frames = -1; // Frames to interpolate, or negative for one per keyframe
+		double snapshotInterval = -1; // Seconds between progressive snapshots, or negative to render in one go
+		int coordinatorPort = -1; // Port to hand out tiles to workers on, or negative to render here
+		String coordinatorAddress = null; // Coordinator to render tiles for as a worker
+		String tonemapInput = null; // Stored linear image(s) to tone map instead of rendering
+		boolean stats = true; // Whether to count the work done, printing a JSON summary at the end
+		double exposure = Tonemapper.DEFAULT_EXPOSURE, brightness = Tonemapper.DEFAULT_BRIGHTNESS;
+		double contrast = Tonemapper.DEFAULT_CONTRAST, gamma = Tonemapper.DEFAULT_GAMMA;
+		List<String> renderOptions = new ArrayList<String>();
 		for (int i = 0; i < args.length; i += 2) {
 			switch (args[i]) {
 			case "-i":
@@ -41,25 +75,383 @@ public class Tick1 {
 			case "--output":
 				output = args[i + 1];
 				break;
-			case "-b":
-			case "--bounces":
-				bounces = Integer.parseInt(args[i + 1]);
+			case "-t":
+			case "--threads":
+				threads = Integer.parseInt(args[i + 1]);
+				break;
+			case "--texture-budget":
+				TextureCache.getShared().setBudget(Long.parseLong(args[i + 1]) << 20);
+				break;
+			case "--scene-cache":
+				sceneCache = new File(args[i + 1]);
+				break;
+			case "--render-cache":
+				renderCacheDirectory = new File(args[i + 1]);
+				break;
+			case "--render-cache-budget":
+				renderCacheBudget = Long.parseLong(args[i + 1]) << 20;
+				break;
+			case "--sequence":
+				sequenceDirectory = args[i + 1];
+				break;
+			case "--keyframes":
+				keyframes = args[i + 1];
+				break;
+			case "--frames":
+				frames = Integer.parseInt(args[i + 1]);
+				break;
+			case "--incremental":
+				incrementalDirectory = new File(args[i + 1]);
+				break;
+			case "--progressive":
+				snapshotInterval = Double.parseDouble(args[i + 1]);
+				break;
+			case "--coordinator":
+				coordinatorPort = Integer.parseInt(args[i + 1]);
+				break;
+			case "--worker":
+				coordinatorAddress = args[i + 1];
+				break;
+			case "--stats":
+				stats = Boolean.parseBoolean(args[i + 1]);
+				break;
+			case "--tonemap":
+				tonemapInput = args[i + 1];
+				break;
+			case "--exposure":
+				exposure = Double.parseDouble(args[i + 1]);
+				break;
+			case "--brightness":
+				brightness = Double.parseDouble(args[i + 1]);
+				break;
+			case "--contrast":
+				contrast = Double.parseDouble(args[i + 1]);
+				break;
+			case "--gamma":
+				gamma = Double.parseDouble(args[i + 1]);
 				break;
 			default:
-				System.err.println("Unknown option: " + args[i]);
+				renderOptions.add(args[i]);
+				renderOptions.add(args[i + 1]);
+			}
+		}
+
+		RenderStats.setEnabled(stats);
+
+		// As a worker, take the scene and rendering options from the coordinator instead
+		if (coordinatorAddress != null) {
+			int colon = coordinatorAddress.lastIndexOf(':');
+			if (colon < 0) {
 				usageError();
 			}
+			new RenderWorker(coordinatorAddress.substring(0, colon),
+					Integer.parseInt(coordinatorAddress.substring(colon + 1)), threads).run();
+			return;
+		}
+
+		// Re-grade stored linear images without rendering: a directory is converted file by file
+		Tonemapper tonemapper = new Tonemapper(exposure, brightness, contrast, gamma);
+		if (tonemapInput != null) {
+			File input = new File(tonemapInput);
+			if (input.isDirectory()) {
+				File[] files = input.listFiles((directory, name) -> name.endsWith(".pfm"));
+				if (files == null) {
+					System.err.println("Cannot read directory " + input);
+					usageError();
+				}
+				for (File file : files) {
+					String name = file.getName();
+					writeImage(HdrImage.readPfm(file), new File(input, name.substring(0, name.length() - 4) + ".png"),
+							tonemapper);
+				}
+				System.out.println("Tone mapped " + files.length + " images");
+			} else {
+				writeImage(HdrImage.readPfm(input), new File(output), tonemapper);
+			}
+			return;
+		}
+
+		// Render an animation, to output numbered by frame
+		if (sequenceDirectory != null || keyframes != null) {
+			List<Scene> scenes = new ArrayList<Scene>();
+			if (sequenceDirectory != null) {
+				File[] files = new File(sequenceDirectory).listFiles((directory, name) -> name.endsWith(".xml"));
+				if (files == null) {
+					System.err.println("Cannot read directory " + sequenceDirectory);
+					usageError();
+				}
+				Arrays.sort(files);
+				for (File file : files) {
+					scenes.add(loadScene(file.getPath(), sceneCache));
+				}
+			} else {
+				for (String file : keyframes.split(",")) {
+					scenes.add(loadScene(file, sceneCache));
+				}
+			}
+			Sequence sequence = sequenceDirectory != null ? Sequence.fromFrames(scenes)
+					: Sequence.fromKeyframes(scenes, frames < 0 ? scenes.size() : frames);
+			String pattern = getFramePattern(output);
+			int frameThreads = threads;
+			sequence.render(() -> createRenderer(renderOptions, frameThreads), threads, (frame, image, frameStats) -> {
+				writeImage(image, new File(String.format(pattern, frame)), tonemapper);
+				System.out.println("Frame " + frame + " of " + sequence.getFrameCount() + " completed");
+				if (RenderStats.isEnabled()) {
+					System.out.println(frameStats.toJson());
+				}
+			});
+			return;
 		}
 
 		// Create the scene from the XML file
 		System.out.printf( "Loading scene '%s'\n", inputSceneFile );
-		Scene scene = new SceneLoader(inputSceneFile).getScene();
+		Scene scene = sceneCache != null ? SceneLoader.loadCached(inputSceneFile, sceneCache)
+				: new SceneLoader(inputSceneFile).getScene();
 		
-		// Create the image and colour the pixels
-		BufferedImage image = new Renderer(WIDTH_PX, HEIGHT_PX, bounces).render(scene);
+		// Create the image and colour the pixels, unless an identical render is cached
+		Renderer renderer = createRenderer(renderOptions, threads);
+		File save = new File(output);
+		RenderCache renderCache = null;
+		String cacheKey = null;
+		if (renderCacheDirectory != null) {
+			renderCache = new RenderCache(renderCacheDirectory, renderCacheBudget);
+			cacheKey = RenderCache.getKey(scene, renderer);
+		}
+		HdrImage image = renderCache != null ? renderCache.get(cacheKey) : null;
+		if (image != null) {
+			System.out.println("Using cached render " + cacheKey);
+			writeImage(image, save, tonemapper);
+			return;
+		} else if (incrementalDirectory != null) {
+			image = renderIncremental(scene, renderer, incrementalDirectory);
+		} else if (coordinatorPort >= 0) {
+			image = new RenderCoordinator(scene, renderOptions, renderer).render(coordinatorPort);
+		} else if (snapshotInterval < 0 && (output.endsWith(".pfm") || renderCache != null)) {
+			image = renderer.renderHdr(scene); // Whole, to be cached
+		} else if (snapshotInterval < 0) {
+			// Encode the PNG a band at a time as the bands are rendered, never holding the whole image
+			try (StreamingPngWriter png = new StreamingPngWriter(save, renderer.getWidth(), renderer.getHeight())) {
+				renderer.renderBands(scene, (band, top) -> png.writeRows(tonemapper.toPixels(band)));
+			}
+			printStats(renderer);
+			return;
+		} else {
+			// Write the image so far to disk after each pass, at most once per interval
+			long intervalNanos = (long) (snapshotInterval * 1e9);
+			long[] lastWrite = { System.nanoTime() };
+			image = renderer.renderProgressive(scene, (snapshot, samplesPerPixel) -> {
+				if (System.nanoTime() - lastWrite[0] >= intervalNanos) {
+					try {
+						writeImage(snapshot, save, tonemapper);
+					} catch (IOException e) {
+						System.err.println("Error writing snapshot: " + e.getMessage());
+					}
+					lastWrite[0] = System.nanoTime();
+				}
+				return true;
+			});
+		}
 		
 		// Save the image to disk
-		File save = new File(output);
-		ImageIO.write(image, "png", save);
+		writeImage(image, save, tonemapper);
+		if (renderCache != null) {
+			renderCache.put(cacheKey, image);
+		}
+		if (coordinatorPort < 0) { // Workers count the coordinator's work
+			printStats(renderer);
+		}
+	}
+
+	// Load the scene of an animation frame, whose acceleration structure the Sequence builds
+	private static Scene loadScene(String file, File sceneCache) {
+		System.out.printf("Loading scene '%s'\n", file);
+		return sceneCache != null ? SceneLoader.loadCached(file, sceneCache, false)
+				: new SceneLoader(file, false).getScene();
+	}
+
+	/*
+	 * Get the format of the frame files of an animation from output: used as it is if it has a format
+	 * specifier for the frame number, as in frame%03d.png, or else numbered before its extension
+	 */
+	static String getFramePattern(String output) {
+		if (output.contains("%")) {
+			return output;
+		}
+		int dot = output.lastIndexOf('.');
+		if (dot <= Math.max(output.lastIndexOf('/'), output.lastIndexOf(File.separatorChar))) {
+			return output + "-%04d";
+		}
+		return output.substring(0, dot) + "-%04d" + output.substring(dot);
+	}
+
+	/*
+	 * Render scene, tracing only the tiles that could differ from the render kept in directory if it was
+	 * made with the same settings, and keep this render and its dependencies there in its place
+	 */
+	static HdrImage renderIncremental(Scene scene, Renderer renderer, File directory) throws IOException {
+		File imageFile = new File(directory, "image.pfm");
+		File dependenciesFile = new File(directory, "dependencies.bin");
+		SceneDependencies dependencies = SceneDependencies.read(dependenciesFile);
+		HdrImage image;
+		if (dependencies != null && dependencies.matches(renderer) && imageFile.isFile()) {
+			image = renderer.rerender(scene, HdrImage.readPfm(imageFile), dependencies);
+		} else {
+			dependencies = new SceneDependencies(scene, renderer);
+			image = renderer.renderRecording(scene, dependencies);
+		}
+
+		// Remove the old dependencies first, so that they are never paired with a different image
+		directory.mkdirs();
+		dependenciesFile.delete();
+		image.writePfm(imageFile);
+		dependencies.write(dependenciesFile);
+		return image;
+	}
+
+	// Print a JSON summary of the work done by renderer's latest render, if it was counted
+	static void printStats(Renderer renderer) {
+		if (RenderStats.isEnabled()) {
+			System.out.println(renderer.getStats().toJson());
+		}
+	}
+
+	// Write image to file, as linear PFM if its name ends in .pfm or else tone mapped to PNG, through a
+	// temporary file beside it so a failed write leaves any earlier image
+	public static void writeImage(HdrImage image, File file, Tonemapper tonemapper) throws IOException {
+		File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+		try {
+			if (file.getName().endsWith(".pfm")) {
+				image.writePfm(temporary);
+			} else if (!ImageIO.write(tonemapper.toImage(image), "png", temporary)) {
+				throw new IOException("no PNG writer available");
+			}
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			temporary.delete(); // Only still there if the write or move failed
+		}
+	}
+
+	/*
+	 * Create a renderer for the output image configured by options, given as pairs of an option and its
+	 * value. These are the options that affect the rendered image, which workers are sent by the
+	 * coordinator so that every tile is rendered alike.
+	 */
+	public static Renderer createRenderer(List<String> options, int threads) {
+		int width = DEFAULT_WIDTH_PX, height = DEFAULT_HEIGHT_PX;
+		int bounces = DEFAULT_BOUNCES;
+		long seed = DEFAULT_SEED;
+		String sampler = DEFAULT_SAMPLER;
+		Integer shadowRays = null;
+		Integer packetSize = null;
+		String engine = "recursive";
+		Double minContribution = null;
+		boolean russianRoulette = false;
+		boolean adaptiveShadows = true;
+		Integer lightBudget = null;
+		Integer dofSamples = null;
+		Double dofTolerance = null;
+		for (int i = 0; i < options.size(); i += 2) {
+			String value = options.get(i + 1);
+			switch (options.get(i)) {
+			case "--width":
+				width = Integer.parseInt(value);
+				break;
+			case "--height":
+				height = Integer.parseInt(value);
+				break;
+			case "-b":
+			case "--bounces":
+				bounces = Integer.parseInt(value);
+				break;
+			case "-s":
+			case "--seed":
+				seed = Long.parseLong(value);
+				break;
+			case "--sampler":
+				sampler = value;
+				break;
+			case "--shadow-rays":
+				shadowRays = Integer.parseInt(value);
+				break;
+			case "--packet-size":
+				packetSize = Integer.parseInt(value);
+				break;
+			case "--engine":
+				engine = value;
+				break;
+			case "--min-contribution":
+				minContribution = Double.parseDouble(value);
+				break;
+			case "--russian-roulette":
+				russianRoulette = Boolean.parseBoolean(value);
+				break;
+			case "--adaptive-shadows":
+				adaptiveShadows = Boolean.parseBoolean(value);
+				break;
+			case "--light-budget":
+				lightBudget = Integer.parseInt(value);
+				break;
+			case "--dof-samples":
+				dofSamples = Integer.parseInt(value);
+				break;
+			case "--dof-tolerance":
+				dofTolerance = Double.parseDouble(value);
+				break;
+			default:
+				System.err.println("Unknown option: " + options.get(i));
+				usageError();
+			}
+		}
+
+		Renderer renderer = new Renderer(width, height, bounces, threads);
+		renderer.setSeed(seed);
+		switch (sampler) {
+		case "random":
+			renderer.setSamplerFactory(RandomSampler::new);
+			break;
+		case "stratified":
+			renderer.setSamplerFactory(StratifiedSampler::new);
+			break;
+		case "halton":
+			renderer.setSamplerFactory(HaltonSampler::new);
+			break;
+		case "sobol":
+			renderer.setSamplerFactory(SobolSampler::new);
+			break;
+		default:
+			System.err.println("Unknown sampler: " + sampler);
+			usageError();
+		}
+		switch (engine) {
+		case "recursive":
+			break;
+		case "wavefront":
+			renderer.setWavefront(true);
+			break;
+		default:
+			System.err.println("Unknown engine: " + engine);
+			usageError();
+		}
+		if (minContribution != null) {
+			renderer.setMinContribution(minContribution);
+		}
+		renderer.setRussianRoulette(russianRoulette);
+		renderer.setAdaptiveShadows(adaptiveShadows);
+		if (lightBudget != null) {
+			renderer.setLightBudget(lightBudget);
+		}
+		if (packetSize != null) {
+			renderer.setPacketSize(packetSize);
+		}
+		if (shadowRays != null) {
+			renderer.setShadowRayCount(shadowRays);
+		}
+		if (dofSamples != null) {
+			renderer.setMaxDofSamples(dofSamples);
+		}
+		if (dofTolerance != null) {
+			renderer.setDofTolerance(dofTolerance);
+		}
+		return renderer;
 	}
 }
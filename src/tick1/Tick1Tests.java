@@ -1,7 +1,22 @@
 package tick1;
 
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
 
 public class Tick1Tests {
 	private boolean failed, failed_test;
@@ -343,12 +358,724 @@ public class Tick1Tests {
 		System.err.println("Part 2 testing complete.\n");
 	}
 
+	// A random point in the cube from -extent to extent on each axis
+	private static Vector3 randomPoint(Random random, double extent) {
+		return new Vector3(extent * (2 * random.nextDouble() - 1), extent * (2 * random.nextDouble() - 1),
+				extent * (2 * random.nextDouble() - 1));
+	}
+
+	// Spheres scattered at random through the cube from -5 to 5, each of its own colour
+	private static List<SceneObject> randomSpheres(Random random, int count) {
+		List<SceneObject> spheres = new ArrayList<SceneObject>();
+		for (int i = 0; i < count; i++) {
+			spheres.add(new Sphere(randomPoint(random, 5), 0.1 + 0.5 * random.nextDouble(),
+					new ColorRGB(random.nextDouble(), random.nextDouble(), random.nextDouble())));
+		}
+		return spheres;
+	}
+
+	// Whether a sample value lies in [0, 1)
+	private static boolean inUnitInterval(double value) {
+		return value >= 0 && value < 1;
+	}
+
+	// Draw from a sampler's current sample as the renderer might, appending every value to values
+	private static void drawSample(Sampler sampler, List<Double> values) {
+		for (int i = 0; i < 3; i++) {
+			values.add(sampler.next());
+		}
+		sampler.startSet(5);
+		for (int index = 0; index < 5; index++) {
+			for (int dimension = 0; dimension < 3; dimension++) {
+				values.add(sampler.getSetPoint(index, dimension));
+			}
+		}
+		values.add(sampler.next());
+	}
+
+	// Determine whether two scenes have equal lighting and objects, in the same order
+	private static boolean sameScene(Scene a, Scene b) {
+		if (!a.getAmbientLighting().equals(b.getAmbientLighting()) || a.getPointLights().size() != b.getPointLights().size()
+				|| a.getObjects().size() != b.getObjects().size()) {
+			return false;
+		}
+		for (int i = 0; i < a.getPointLights().size(); i++) {
+			PointLight l1 = a.getPointLights().get(i), l2 = b.getPointLights().get(i);
+			if (!l1.getPosition().equals(l2.getPosition()) || !l1.getColour().equals(l2.getColour())
+					|| l1.getIntensity() != l2.getIntensity()) {
+				return false;
+			}
+		}
+		for (int i = 0; i < a.getObjects().size(); i++) {
+			SceneObject o1 = a.getObjects().get(i), o2 = b.getObjects().get(i);
+			if (o1.getClass() != o2.getClass() || !o1.getColour().equals(o2.getColour())
+					|| o1.getPhong_kD() != o2.getPhong_kD() || o1.getPhong_kS() != o2.getPhong_kS()
+					|| o1.getPhong_alpha() != o2.getPhong_alpha() || o1.getReflectivity() != o2.getReflectivity()) {
+				return false;
+			}
+			if (o1 instanceof Sphere && (!((Sphere) o1).getPosition().equals(((Sphere) o2).getPosition())
+					|| ((Sphere) o1).getRadius() != ((Sphere) o2).getRadius())) {
+				return false;
+			}
+			if (o1 instanceof BumpySphere
+					&& !((BumpySphere) o1).getBumpMapFile().equals(((BumpySphere) o2).getBumpMapFile())) {
+				return false;
+			}
+			if (o1 instanceof Plane && (!((Plane) o1).getPoint().equals(((Plane) o2).getPoint())
+					|| !((Plane) o1).getNormal().equals(((Plane) o2).getNormal()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Write a small random grey image to use as a bump map
+	private static File createBumpMap(File directory, Random random) throws IOException {
+		BufferedImage image = new BufferedImage(16, 8, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				image.setRGB(x, y, random.nextInt(256) * 0x010101);
+			}
+		}
+		File file = new File(directory, "bumpmap.png");
+		ImageIO.write(image, "png", file);
+		return file;
+	}
+
+	/*
+	 * A small scene in front of the camera: a reflective floor and spheres of random colours, some of them
+	 * reflective, lit by lightCount lights at random above them
+	 */
+	private static Scene createTestScene(Random random, int lightCount) {
+		Scene scene = new Scene();
+		scene.setAmbientLight(new ColorRGB(0.05));
+		scene.addObject(new Plane(new Vector3(0, -1.5, 0), new Vector3(0, 1, 0), new ColorRGB(0.6), 0.8, 0.2, 10, 0.3));
+		for (int i = 0; i < 8; i++) {
+			Vector3 position = new Vector3(2 * random.nextDouble() - 1, 2 * random.nextDouble() - 1, 2 * random.nextDouble())
+					.scale(1.5).add(new Vector3(0, 0, 4));
+			scene.addObject(new Sphere(position, 0.3 + 0.4 * random.nextDouble(),
+					new ColorRGB(random.nextDouble(), random.nextDouble(), random.nextDouble()), 0.8, 1.2, 10, i % 2 == 0 ? 0.5 : 0));
+		}
+		for (int i = 0; i < lightCount; i++) {
+			scene.addPointLight(new PointLight(new Vector3(4 * random.nextDouble() - 2, 2 + random.nextDouble(), 1 + 4 * random.nextDouble()),
+					new ColorRGB(random.nextDouble(), random.nextDouble(), random.nextDouble()), 50 + 50 * random.nextDouble()));
+		}
+		scene.buildAccelerationStructure();
+		return scene;
+	}
+
+	// Determine whether two images are the same size with exactly the same pixels
+	private static boolean samePixels(HdrImage a, HdrImage b) {
+		if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()) {
+			return false;
+		}
+		for (int y = 0; y < a.getHeight(); y++) {
+			for (int x = 0; x < a.getWidth(); x++) {
+				if (!a.getPixel(x, y).equals(b.getPixel(x, y))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	// A scene of the given lighting and objects, ready to render
+	private static Scene createScene(ColorRGB ambientLight, List<PointLight> lights, List<SceneObject> objects) {
+		Scene scene = new Scene();
+		scene.setAmbientLight(ambientLight);
+		for (PointLight light : lights) {
+			scene.addPointLight(light);
+		}
+		for (SceneObject object : objects) {
+			scene.addObject(object);
+		}
+		scene.buildAccelerationStructure();
+		return scene;
+	}
+
+	/*
+	 * Render before recording its dependencies and then rerender after from them, returning whether the
+	 * result differs from before but has exactly the pixels of after rendered afresh
+	 */
+	private static boolean rerendersAsFresh(Scene before, Scene after, Renderer renderer) throws IOException {
+		SceneDependencies dependencies = new SceneDependencies(before, renderer);
+		HdrImage previous = renderer.renderRecording(before, dependencies);
+		HdrImage rerendered = renderer.rerender(after, previous, dependencies);
+		return !samePixels(rerendered, previous) && samePixels(rerendered, renderer.renderHdr(after));
+	}
+
+	// Delete a directory of temporary files
+	private static void deleteDirectory(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private void runTestsRenderer() {
+		System.err.println("Testing renderer code...");
+
+		// Acceleration structure tests
+		start("bounding volume hierarchy: closest hit matches a linear scan");
+		{
+			Random random = new Random(1);
+			List<SceneObject> spheres = randomSpheres(random, 200);
+			BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(spheres);
+			for (int i = 0; i < 1000; i++) {
+				Ray r = new Ray(randomPoint(random, 8), randomPoint(random, 1).normalised());
+				RaycastHit expected = new RaycastHit();
+				for (SceneObject sphere : spheres) {
+					RaycastHit hit = sphere.intersectionWith(r);
+					if (hit.getObjectHit() != null && hit.getDistance() < expected.getDistance()) {
+						expected = hit;
+					}
+				}
+				RaycastHit hit = bvh.findClosestIntersection(r, new RaycastHit());
+				check(hit.getObjectHit() == expected.getObjectHit());
+				check(hit.getObjectHit() == null || Math.abs(hit.getDistance() - expected.getDistance()) < 1e-9);
+			}
+		}
+		finish();
+
+		start("bounding volume hierarchy: occluder matches a linear scan");
+		{
+			Random random = new Random(2);
+			List<SceneObject> spheres = randomSpheres(random, 200);
+			BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(spheres);
+			for (int i = 0; i < 1000; i++) {
+				Vector3 O = randomPoint(random, 8);
+				Vector3 D = randomPoint(random, 1).normalised();
+				double maxDistance = 20 * random.nextDouble();
+				boolean expected = false;
+				for (SceneObject sphere : spheres) {
+					expected |= sphere.occluded(O.x, O.y, O.z, D.x, D.y, D.z, maxDistance);
+				}
+				SceneObject occluder = bvh.findOccluder(O.x, O.y, O.z, D.x, D.y, D.z, maxDistance);
+				check((occluder != null) == expected);
+				check(occluder == null || occluder.occluded(O.x, O.y, O.z, D.x, D.y, D.z, maxDistance));
+			}
+		}
+		finish();
+
+		start("bounding volume hierarchy: scene with planes matches an unaccelerated scene");
+		{
+			Random random = new Random(3);
+			Scene linear = new Scene(), accelerated = new Scene();
+			List<SceneObject> objects = randomSpheres(random, 100);
+			objects.add(new Plane(new Vector3(0, -4, 0), new Vector3(0, 1, 0), new ColorRGB(1)));
+			objects.add(new Plane(new Vector3(0, 0, 6), new Vector3(0, 0, -1), new ColorRGB(1)));
+			for (SceneObject object : objects) {
+				linear.addObject(object);
+				accelerated.addObject(object);
+			}
+			accelerated.buildAccelerationStructure();
+			for (int i = 0; i < 1000; i++) {
+				Ray r = new Ray(randomPoint(random, 3), randomPoint(random, 1).normalised());
+				RaycastHit expected = linear.findClosestIntersection(r);
+				RaycastHit hit = accelerated.findClosestIntersection(r);
+				check(hit.getObjectHit() == expected.getObjectHit());
+				check(hit.getObjectHit() == null || Math.abs(hit.getDistance() - expected.getDistance()) < 1e-9);
+
+				Vector3 O = r.getOrigin(), D = r.getDirection();
+				double maxDistance = 10 * random.nextDouble();
+				check(accelerated.occluded(O.x, O.y, O.z, D.x, D.y, D.z, maxDistance)
+						== linear.occluded(O.x, O.y, O.z, D.x, D.y, D.z, maxDistance));
+			}
+		}
+		finish();
+
+		// Compiled scene tests
+		start("compiled scene: round trip gives an equal scene");
+		{
+			File directory = null;
+			try {
+				directory = Files.createTempDirectory("tick1").toFile();
+				Random random = new Random(4);
+				Scene scene = new Scene();
+				scene.setAmbientLight(new ColorRGB(0.1, 0.2, 0.3));
+				scene.addPointLight(new PointLight(randomPoint(random, 5), new ColorRGB(1, 0.5, 0.25), 80));
+				scene.addPointLight(new PointLight(randomPoint(random, 5), new ColorRGB(0.5), 20.5));
+				for (int i = 0; i < 10; i++) {
+					scene.addObject(new Sphere(randomPoint(random, 5), random.nextDouble(),
+							new ColorRGB(random.nextDouble(), random.nextDouble(), random.nextDouble()),
+							random.nextDouble(), random.nextDouble(), 100 * random.nextDouble(), random.nextDouble()));
+				}
+				scene.addObject(new Plane(randomPoint(random, 5), randomPoint(random, 1).normalised(), new ColorRGB(0.7),
+						0.6, 0.4, 12, 0.2));
+				scene.addObject(new BumpySphere(randomPoint(random, 5), 0.8, new ColorRGB(1, 0, 0),
+						createBumpMap(directory, random).getPath()));
+
+				byte[] bytes = CompiledScene.toBytes(scene);
+				Scene copy = CompiledScene.fromBytes(bytes);
+				check(sameScene(scene, copy));
+				check(Arrays.equals(CompiledScene.toBytes(copy), bytes));
+
+				// Through a file, which is only read while it is up to date with its source
+				File source = new File(directory, "scene.xml");
+				Files.write(source.toPath(), new byte[] { 0 });
+				File compiled = new File(directory, "scene.bin");
+				CompiledScene.write(scene, source, compiled);
+				Scene read = CompiledScene.read(source, compiled);
+				check(read != null && sameScene(scene, read));
+				source.setLastModified(source.lastModified() + 10000);
+				check(CompiledScene.read(source, compiled) == null);
+			} catch (IOException e) {
+				fail();
+			} finally {
+				if (directory != null) {
+					deleteDirectory(directory);
+				}
+			}
+		}
+		finish();
+
+		// Light hierarchy tests
+		start("light hierarchy: selection probabilities sum to 1 and match sampling");
+		{
+			Random random = new Random(5);
+			Scene scene = new Scene();
+			for (int i = 0; i < 37; i++) {
+				scene.addPointLight(new PointLight(randomPoint(random, 5),
+						new ColorRGB(random.nextDouble(), random.nextDouble(), random.nextDouble()), 100 * random.nextDouble()));
+			}
+			LightHierarchy hierarchy = scene.getLightHierarchy();
+			for (int point = 0; point < 20; point++) {
+				Vector3 P = randomPoint(random, 6);
+				double total = 0;
+				for (int i = 0; i < hierarchy.size(); i++) {
+					total += hierarchy.getProbability(P, i);
+				}
+				check(Math.abs(total - 1) < 1e-9);
+
+				// Evenly spread choices pick each light in proportion to its probability
+				int draws = 100000;
+				int[] chosen = new int[hierarchy.size()];
+				for (int k = 0; k < draws; k++) {
+					chosen[hierarchy.sample(P, (k + 0.5) / draws)]++;
+				}
+				for (int i = 0; i < hierarchy.size(); i++) {
+					check(Math.abs(chosen[i] / (double) draws - hierarchy.getProbability(P, i)) < 1e-3);
+				}
+			}
+		}
+		finish();
+
+		start("light hierarchy: chosen lights are weighted by 1 / (budget * probability)");
+		{
+			Random random = new Random(6);
+			Scene scene = new Scene();
+			for (int i = 0; i < 50; i++) {
+				scene.addPointLight(new PointLight(randomPoint(random, 5), new ColorRGB(1), 10 + 90 * random.nextDouble()));
+			}
+			Renderer renderer = new Renderer(0, 0, 1);
+			renderer.setLightBudget(4);
+			Sampler sampler = new RandomSampler(0);
+			int[] lights = new int[4];
+			double[] weights = new double[4];
+			for (int point = 0; point < 100; point++) {
+				Vector3 P = randomPoint(random, 6);
+				sampler.startSample(point, 0, 0, 1);
+				check(renderer.chooseLights(scene, P, sampler, lights, weights) == 4);
+				for (int k = 0; k < 4; k++) {
+					double probability = scene.getLightHierarchy().getProbability(P, lights[k]);
+					check(probability > 0 && weights[k] == 1 / (4 * probability));
+				}
+			}
+
+			// Within the budget, every light is chosen once with weight 1
+			renderer.setLightBudget(50);
+			int[] allLights = new int[50];
+			double[] allWeights = new double[50];
+			check(renderer.chooseLights(scene, new Vector3(0), sampler, allLights, allWeights) == 50);
+			for (int i = 0; i < 50; i++) {
+				check(allLights[i] == i && allWeights[i] == 1);
+			}
+		}
+		finish();
+
+		// HDR image tests
+		start("hdr image: PFM write then read gives the same pixels");
+		{
+			File file = null;
+			try {
+				file = File.createTempFile("tick1", ".pfm");
+				Random random = new Random(8);
+				HdrImage image = new HdrImage(7, 5);
+				for (int y = 0; y < image.getHeight(); y++) {
+					for (int x = 0; x < image.getWidth(); x++) {
+						image.setPixel(x, y, random.nextDouble(), 1000 * random.nextDouble(), x == y ? 0 : random.nextGaussian());
+					}
+				}
+				image.writePfm(file);
+				HdrImage read = HdrImage.readPfm(file);
+				check(read.getWidth() == image.getWidth() && read.getHeight() == image.getHeight());
+				for (int y = 0; y < image.getHeight(); y++) {
+					for (int x = 0; x < image.getWidth(); x++) {
+						check(read.getPixel(x, y).equals(image.getPixel(x, y)));
+					}
+				}
+
+				// Big-endian files, as other programs may write, have a positive scale
+				ByteBuffer bigEndian = ByteBuffer.allocate(14 + 24);
+				bigEndian.put("PF\n2 1\n1.0\n".getBytes(StandardCharsets.US_ASCII));
+				for (int i = 0; i < 6; i++) {
+					bigEndian.putFloat(i + 0.5f);
+				}
+				Files.write(file.toPath(), Arrays.copyOf(bigEndian.array(), bigEndian.position()));
+				read = HdrImage.readPfm(file);
+				check(read.getPixel(0, 0).equals(new ColorRGB(0.5, 1.5, 2.5))
+						&& read.getPixel(1, 0).equals(new ColorRGB(3.5, 4.5, 5.5)));
+			} catch (IOException e) {
+				fail();
+			} finally {
+				if (file != null) {
+					file.delete();
+				}
+			}
+		}
+		finish();
+
+		start("tone mapping: encode matches tonemap");
+		{
+			Tonemapper[] tonemappers = { new Tonemapper(), new Tonemapper(1.5, 1.2, 0.8, 1.8) };
+			for (Tonemapper tonemapper : tonemappers) {
+				float[] special = { 0, -0f, -1, Float.MIN_VALUE, Float.MAX_VALUE, Float.POSITIVE_INFINITY, Float.NaN };
+				for (float value : special) {
+					check(tonemapper.encode(value) == (tonemapper.tonemap(new ColorRGB(value)).toRGB() & 0xff));
+				}
+
+				// Every positive float would take too long, so step through them with the neighbours of each
+				int last = Float.floatToRawIntBits(Float.MAX_VALUE);
+				for (int bits = 1; bits > 0 && bits <= last; bits += 1 << 13) {
+					float value = Float.intBitsToFloat(bits);
+					float[] values = { Math.nextDown(value), value, Math.nextUp(value) };
+					for (float v : values) {
+						check(tonemapper.encode(v) == (tonemapper.tonemap(new ColorRGB(v)).toRGB() & 0xff));
+					}
+				}
+			}
+		}
+		finish();
+
+		// PNG encoder tests
+		start("png: streamed image decodes to the same pixels");
+		{
+			File file = null;
+			try {
+				file = File.createTempFile("tick1", ".png");
+				Random random = new Random(9);
+				int width = 96, height = 72;
+				int[] pixels = new int[width * height];
+				for (int y = 0; y < height; y++) {
+					for (int x = 0; x < width; x++) {
+						// Noise in some rows and smooth gradients in others, so that every filter is chosen
+						pixels[y * width + x] = y % 3 == 0 ? random.nextInt(1 << 24) : (x * 2) << 16 | (y * 3) << 8 | (x + y);
+					}
+				}
+				try (StreamingPngWriter png = new StreamingPngWriter(file, width, height)) {
+					for (int top = 0; top < height; top += 16) {
+						png.writeRows(Arrays.copyOfRange(pixels, top * width, Math.min(height, top + 16) * width));
+					}
+				}
+				BufferedImage image = ImageIO.read(file);
+				check(image != null && image.getWidth() == width && image.getHeight() == height);
+				for (int y = 0; image != null && y < height; y++) {
+					for (int x = 0; x < width; x++) {
+						check((image.getRGB(x, y) & 0xffffff) == pixels[y * width + x]);
+					}
+				}
+			} catch (IOException e) {
+				fail();
+			} finally {
+				if (file != null) {
+					file.delete();
+				}
+			}
+		}
+		finish();
+
+		start("png: an incomplete image leaves the earlier file in place");
+		{
+			File directory = null;
+			try {
+				directory = Files.createTempDirectory("tick1").toFile();
+				File file = new File(directory, "image.png");
+				byte[] earlier = { 1, 2, 3 };
+				Files.write(file.toPath(), earlier);
+				boolean rejected = false;
+				try (StreamingPngWriter png = new StreamingPngWriter(file, 8, 8)) {
+					png.writeRows(new int[8 * 4]); // Closed with only half the rows written
+				} catch (IOException e) {
+					rejected = true;
+				}
+				check(rejected);
+				check(Arrays.equals(Files.readAllBytes(file.toPath()), earlier));
+				check(directory.list().length == 1);
+			} catch (IOException e) {
+				fail();
+			} finally {
+				if (directory != null) {
+					deleteDirectory(directory);
+				}
+			}
+		}
+		finish();
+
+		// Sampler tests
+		List<Sampler> samplers = new ArrayList<Sampler>();
+		samplers.add(new RandomSampler(7));
+		samplers.add(new StratifiedSampler(7));
+		samplers.add(new HaltonSampler(7));
+		samplers.add(new SobolSampler(7));
+		for (Sampler sampler : samplers) {
+			String name = sampler.getClass().getSimpleName();
+
+			start("sampler: " + name + " values lie in [0, 1)");
+			{
+				for (int pixel = 0; pixel < 64; pixel++) {
+					for (int sample = 0; sample < 16; sample++) {
+						sampler.startSample(pixel % 8, pixel / 8, sample, 16);
+						check(inUnitInterval(sampler.getApertureX()) && inUnitInterval(sampler.getApertureY()));
+						List<Double> values = new ArrayList<Double>();
+						drawSample(sampler, values);
+						for (double value : values) {
+							check(inUnitInterval(value));
+						}
+					}
+				}
+			}
+			finish();
+
+			start("sampler: " + name + " resume continues the sequence");
+			{
+				sampler.startSample(3, 5, 2, 16);
+				List<Double> skipped = new ArrayList<Double>(), expected = new ArrayList<Double>();
+				drawSample(sampler, skipped);
+				long position = sampler.getPosition();
+				drawSample(sampler, expected);
+				drawSample(sampler, expected);
+
+				// Draw from another pixel in between, as another path in a wavefront would
+				sampler.startSample(6, 1, 9, 16);
+				drawSample(sampler, skipped);
+
+				sampler.resume(3, 5, 2, 16, position);
+				List<Double> resumed = new ArrayList<Double>();
+				drawSample(sampler, resumed);
+				drawSample(sampler, resumed);
+				check(resumed.equals(expected));
+			}
+			finish();
+		}
+
+		// Rendering tests
+		start("rendering: the wavefront tracer renders the same pixels as the recursive one");
+		{
+			Scene scene = createTestScene(new Random(11), 6);
+			HdrImage[] images = new HdrImage[2];
+			for (int i = 0; i < 2; i++) {
+				Renderer renderer = new Renderer(80, 60, 3);
+				renderer.setSeed(4);
+				renderer.setRussianRoulette(true);
+				renderer.setLightBudget(2);
+				renderer.setWavefront(i == 1);
+				images[i] = renderer.renderHdr(scene);
+			}
+			check(samePixels(images[0], images[1]));
+		}
+		finish();
+
+		start("rendering: one thread and four render the same pixels");
+		{
+			Scene scene = createTestScene(new Random(12), 3);
+			HdrImage[] images = new HdrImage[2];
+			int[] threads = { 1, 4 };
+			for (int i = 0; i < 2; i++) {
+				Renderer renderer = new Renderer(80, 60, 3, threads[i]);
+				renderer.setSeed(5);
+				images[i] = renderer.renderHdr(scene);
+			}
+			check(samePixels(images[0], images[1]));
+		}
+		finish();
+
+		// Incremental rendering tests, each editing the same scene and rerendering it from a recorded render
+		Scene original = createTestScene(new Random(13), 3);
+		ColorRGB ambient = original.getAmbientLighting();
+		List<PointLight> lights = original.getPointLights();
+		List<SceneObject> objects = original.getObjects();
+		Renderer incremental = new Renderer(128, 96, 3);
+		incremental.setSeed(6);
+
+		start("incremental rendering: a restyled object");
+		{
+			List<SceneObject> edited = new ArrayList<SceneObject>(objects);
+			Sphere sphere = (Sphere) edited.get(1);
+			edited.set(1, new Sphere(sphere.getPosition(), sphere.getRadius(), new ColorRGB(1, 0.5, 0), 0.5, 2, 20, 0.2));
+			try {
+				check(rerendersAsFresh(original, createScene(ambient, lights, edited), incremental));
+			} catch (IOException e) {
+				fail();
+			}
+		}
+		finish();
+
+		start("incremental rendering: a moved object");
+		{
+			List<SceneObject> edited = new ArrayList<SceneObject>(objects);
+			Sphere sphere = (Sphere) edited.get(2);
+			edited.set(2, new Sphere(sphere.getPosition().add(new Vector3(0.4, 0.3, 0)), sphere.getRadius(),
+					sphere.getColour(), sphere.getPhong_kD(), sphere.getPhong_kS(), sphere.getPhong_alpha(),
+					sphere.getReflectivity()));
+			try {
+				check(rerendersAsFresh(original, createScene(ambient, lights, edited), incremental));
+			} catch (IOException e) {
+				fail();
+			}
+		}
+		finish();
+
+		start("incremental rendering: an object added inside the grid");
+		{
+			List<SceneObject> edited = new ArrayList<SceneObject>(objects);
+			edited.add(new Sphere(new Vector3(-0.5, -1, 3), 0.3, new ColorRGB(0.2, 0.9, 0.9)));
+			try {
+				check(rerendersAsFresh(original, createScene(ambient, lights, edited), incremental));
+			} catch (IOException e) {
+				fail();
+			}
+		}
+		finish();
+
+		start("incremental rendering: an object added outside the grid");
+		{
+			List<SceneObject> edited = new ArrayList<SceneObject>(objects);
+			edited.add(new Sphere(new Vector3(0, 4, 40), 6, new ColorRGB(0.9, 0.9, 0.2)));
+			try {
+				check(rerendersAsFresh(original, createScene(ambient, lights, edited), incremental));
+			} catch (IOException e) {
+				fail();
+			}
+		}
+		finish();
+
+		start("incremental rendering: removed objects");
+		{
+			List<SceneObject> edited = new ArrayList<SceneObject>(objects);
+			edited.remove(5);
+			edited.remove(3);
+			try {
+				check(rerendersAsFresh(original, createScene(ambient, lights, edited), incremental));
+			} catch (IOException e) {
+				fail();
+			}
+		}
+		finish();
+
+		start("incremental rendering: a moved light");
+		{
+			List<PointLight> edited = new ArrayList<PointLight>(lights);
+			PointLight light = edited.get(0);
+			edited.set(0, new PointLight(light.getPosition().add(new Vector3(-1, 0.5, 0)), light.getColour(),
+					light.getIntensity()));
+			try {
+				check(rerendersAsFresh(original, createScene(ambient, edited, objects), incremental));
+			} catch (IOException e) {
+				fail();
+			}
+		}
+		finish();
+
+		start("incremental rendering: a changed ambient light");
+		{
+			try {
+				check(rerendersAsFresh(original, createScene(new ColorRGB(0.2, 0.1, 0.1), lights, objects), incremental));
+			} catch (IOException e) {
+				fail();
+			}
+		}
+		finish();
+
+		start("incremental rendering: more lights than the light budget");
+		{
+			Scene manyLights = createTestScene(new Random(14), 6);
+			Renderer budgeted = new Renderer(128, 96, 3);
+			budgeted.setSeed(7);
+			budgeted.setLightBudget(2);
+			List<SceneObject> moved = new ArrayList<SceneObject>(manyLights.getObjects());
+			Sphere sphere = (Sphere) moved.get(4);
+			moved.set(4, new Sphere(sphere.getPosition().add(new Vector3(0, 0.5, 0)), sphere.getRadius(), sphere.getColour()));
+			List<PointLight> movedLights = new ArrayList<PointLight>(manyLights.getPointLights());
+			PointLight light = movedLights.get(3);
+			movedLights.set(3, new PointLight(light.getPosition().add(new Vector3(1, 0, 0)), light.getColour(),
+					light.getIntensity()));
+			try {
+				check(rerendersAsFresh(manyLights,
+						createScene(manyLights.getAmbientLighting(), manyLights.getPointLights(), moved), budgeted));
+				check(rerendersAsFresh(manyLights,
+						createScene(manyLights.getAmbientLighting(), movedLights, manyLights.getObjects()), budgeted));
+			} catch (IOException e) {
+				fail();
+			}
+		}
+		finish();
+
+		// Distributed rendering tests
+		start("distributed rendering: a worker lost mid-tile leaves the image as rendered locally");
+		{
+			Scene scene = createTestScene(new Random(10), 3);
+			List<String> options = Arrays.asList("--width", "80", "--height", "60", "-b", "2", "--seed", "3");
+			try {
+				RenderCoordinator coordinator = new RenderCoordinator(scene, options, Tick1.createRenderer(options, 1));
+				int port = coordinator.listen(0);
+				HdrImage[] distributed = new HdrImage[1];
+				Thread render = new Thread(() -> {
+					try {
+						distributed[0] = coordinator.render();
+					} catch (IOException e) {
+						// Leaves no image, which fails the test
+					}
+				});
+				render.start();
+
+				// A worker that disconnects once given its first tile, without returning it
+				try (Socket socket = new Socket("localhost", port)) {
+					DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+					check(in.readInt() == RenderCoordinator.MAGIC && in.readInt() == RenderCoordinator.VERSION);
+					int optionCount = in.readInt();
+					for (int i = 0; i < optionCount; i++) {
+						in.readUTF();
+					}
+					in.readFully(new byte[in.readInt()]);
+					check(in.readInt() != RenderCoordinator.FINISHED);
+					in.readInt();
+				}
+
+				new RenderWorker("localhost", port, 2).run();
+				render.join();
+				check(distributed[0] != null
+						&& samePixels(distributed[0], Tick1.createRenderer(options, 1).renderHdr(scene)));
+			} catch (IOException e) {
+				fail();
+			} catch (InterruptedException e) {
+				fail();
+			}
+		}
+		finish();
+
+		System.err.println("Renderer testing complete.\n");
+	}
+
 	public void test(boolean testAll) {
 		failed = false;
 		runTestsPart1();
 		if (testAll) {
 			runTestsPart2();
-			System.err.println("Tested both part 1 and part 2 code.");
+			runTestsRenderer();
+			System.err.println("Tested part 1, part 2 and renderer code.");
 		} else {
 			System.err.println("Tested only part 1 code.");
 		}
@@ -0,0 +1,79 @@
+package tick1;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.BitSet;
+
+/*
+ * What the pixels of one tile were found to depend on while it was rendered: the objects its rays hit, the
+ * objects that blocked its shadow rays, the lights considered at its shading points, and the cells of the
+ * dependency grid its rays passed through, which decide whether a newly placed object could be hit.
+ */
+class TileDependencies {
+
+	// Indices of the objects hit, blocking objects and lights in the scene rendered, and of the grid cells
+	// rays passed through
+	BitSet objects = new BitSet();
+	BitSet occluders = new BitSet();
+	BitSet lights = new BitSet();
+	final BitSet cells = new BitSet();
+
+	// Whether any ray left the grid, so could hit an object placed outside it
+	boolean escapes;
+
+	// Whether any ray hit a surface that was lit, so depends on the ambient light and the set of lights
+	boolean shaded;
+
+	// Renumber the objects and lights, given the new index of each old one
+	void renumber(int[] objectIndices, int[] lightIndices) {
+		objects = renumber(objects, objectIndices);
+		occluders = renumber(occluders, objectIndices);
+		lights = renumber(lights, lightIndices);
+	}
+
+	private static BitSet renumber(BitSet indices, int[] newIndices) {
+		BitSet renumbered = new BitSet();
+		for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i + 1)) {
+			renumbered.set(newIndices[i]);
+		}
+		return renumbered;
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		out.writeBoolean(escapes);
+		out.writeBoolean(shaded);
+		writeBits(out, objects);
+		writeBits(out, occluders);
+		writeBits(out, lights);
+		writeBits(out, cells);
+	}
+
+	static TileDependencies read(ByteBuffer in) {
+		TileDependencies tile = new TileDependencies();
+		tile.escapes = in.get() != 0;
+		tile.shaded = in.get() != 0;
+		tile.objects = readBits(in);
+		tile.occluders = readBits(in);
+		tile.lights = readBits(in);
+		tile.cells.or(readBits(in));
+		return tile;
+	}
+
+	private static void writeBits(DataOutputStream out, BitSet bits) throws IOException {
+		long[] words = bits.toLongArray();
+		out.writeInt(words.length);
+		for (long word : words) {
+			out.writeLong(word);
+		}
+	}
+
+	private static BitSet readBits(ByteBuffer in) {
+		long[] words = new long[in.getInt()];
+		LongBuffer buffer = in.asLongBuffer();
+		buffer.get(words);
+		in.position(in.position() + 8 * words.length);
+		return BitSet.valueOf(words);
+	}
+}
@@ -0,0 +1,117 @@
+package tick1;
+
+import java.awt.image.BufferedImage;
+
+/*
+ * Combined tone mapping and display encoding of linear radiance into 8-bit colour. Each channel is mapped
+ * by the same increasing curve, so for a given grading the least linear value reaching each of the 255
+ * display levels above black is found once, and a channel is then encoded by comparing it with those
+ * levels instead of evaluating the curve. This makes re-grading a stored HdrImage cheap.
+ */
+public class Tonemapper {
+
+	public static final double DEFAULT_EXPOSURE = 0; // Stops
+	public static final double DEFAULT_BRIGHTNESS = 2;
+	public static final double DEFAULT_CONTRAST = 1.3;
+	public static final double DEFAULT_GAMMA = 2.2;
+
+	private final double exposureScale; // Linear scale for the exposure
+	private final double brightness; // a, controls brightness
+	private final double contrast; // b, controls contrast
+	private final double invGamma;
+
+	// Least linear value encoded as each display level from 1 to 255, or infinity if none is
+	private final float[] levels = new float[255];
+
+	// Level of the least value in each bucket of floats sharing their top bits, from which a channel
+	// needs at most a few comparisons to reach its own level
+	private static final int BUCKET_SHIFT = 15;
+	private final byte[] bucketLevels = new byte[(Float.floatToRawIntBits(Float.POSITIVE_INFINITY) >>> BUCKET_SHIFT) + 1];
+
+	public Tonemapper() {
+		this(DEFAULT_EXPOSURE, DEFAULT_BRIGHTNESS, DEFAULT_CONTRAST, DEFAULT_GAMMA);
+	}
+
+	public Tonemapper(double exposure, double brightness, double contrast, double gamma) {
+		this.exposureScale = Math.pow(2, exposure);
+		this.brightness = brightness;
+		this.contrast = contrast;
+		this.invGamma = 1. / gamma;
+
+		// Binary search the positive finite floats, whose bit patterns are ordered as their values
+		for (int level = 1; level <= 255; level++) {
+			int low = 0, high = Float.floatToRawIntBits(Float.POSITIVE_INFINITY);
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (encodeDirect(Float.intBitsToFloat(middle)) >= level) {
+					high = middle;
+				} else {
+					low = middle + 1;
+				}
+			}
+			levels[level - 1] = Float.intBitsToFloat(low);
+		}
+
+		int level = 0;
+		for (int bucket = 0; bucket < bucketLevels.length; bucket++) {
+			float least = Float.intBitsToFloat(bucket << BUCKET_SHIFT);
+			while (level < levels.length && levels[level] <= least) {
+				level++;
+			}
+			bucketLevels[bucket] = (byte) level;
+		}
+	}
+
+	// Tone map a linear colour and encode it for display
+	public ColorRGB tonemap( ColorRGB linearRGB ) {
+		double a = brightness;
+		double b = contrast;
+
+		// Sigmoidal tone mapping
+		ColorRGB powRGB = linearRGB.scale(exposureScale).power(b);
+		ColorRGB displayRGB = powRGB.scale( powRGB.add(Math.pow(0.5/a,b)).inv() );
+
+		// Display encoding - gamma
+		ColorRGB gammaRGB = displayRGB.power( invGamma );
+
+		return gammaRGB;
+	}
+
+	// Tone map every pixel of image
+	public BufferedImage toImage(HdrImage image) {
+		int width = image.getWidth(), height = image.getHeight();
+		int[] pixels = toPixels(image);
+		BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		result.getRaster().setDataElements(0, 0, width, height, pixels); // Skips setRGB's colour model
+		return result;
+	}
+
+	// Tone map every pixel of image, row by row from the top left, as 0xRRGGBB
+	public int[] toPixels(HdrImage image) {
+		int[] pixels = new int[image.getWidth() * image.getHeight()];
+		for (int pixel = 0; pixel < pixels.length; pixel++) {
+			pixels[pixel] = encode(image.getChannel(pixel, 0)) << 16 | encode(image.getChannel(pixel, 1)) << 8
+					| encode(image.getChannel(pixel, 2));
+		}
+		return pixels;
+	}
+
+	// Encode one linear channel as a display level, as tonemap followed by ColorRGB.toRGB would
+	int encode(float value) {
+		// Near the top the curve only rounds to 1 some of the time, so levels 254 and 255 are not split at
+		// any one value and bright values are evaluated directly
+		if (!(value > 0 && value < levels[levels.length - 2])) {
+			return encodeDirect(value);
+		}
+		int level = bucketLevels[Float.floatToRawIntBits(value) >>> BUCKET_SHIFT] & 0xff;
+		while (level < levels.length && levels[level] <= value) {
+			level++;
+		}
+		return level;
+	}
+
+	// Encode one linear channel by evaluating the curve
+	private int encodeDirect(double value) {
+		return tonemap(new ColorRGB(value)).toRGB() & 0xff;
+	}
+}
@@ -77,14 +77,28 @@ public class Vector3 {
 
 	// Creates a random vector inside the unit sphere
 	public static Vector3 randomInsideUnitSphere() {
+		return insideUnitSphere(Math.random(), Math.random(), Math.random());
+	}
+
+	// Creates a random vector inside the unit sphere, drawing values from sampler
+	public static Vector3 randomInsideUnitSphere(Sampler sampler) {
+		return insideUnitSphere(sampler.next(), sampler.next(), sampler.next());
+	}
+
+	/*
+	 * Map a point (u, v, w) of the unit cube to a point inside the unit sphere, such that uniformly
+	 * distributed points in the cube give points uniformly distributed by volume in the sphere
+	 */
+	public static Vector3 insideUnitSphere(double u, double v, double w) {
 
-		double r = Math.random();
-		double theta = Math.random() * Math.PI;
-		double phi = Math.random() * Math.PI * 2;
+		double r = Math.cbrt(u);
+		double cosTheta = 1 - 2 * v;
+		double sinTheta = Math.sqrt(Math.max(0, 1 - cosTheta * cosTheta));
+		double phi = w * Math.PI * 2;
 
-		double x = r * Math.sin(theta) * Math.cos(phi);
-		double y = r * Math.sin(theta) * Math.sin(phi);
-		double z = r * Math.cos(theta);
+		double x = r * sinTheta * Math.cos(phi);
+		double y = r * sinTheta * Math.sin(phi);
+		double z = r * cosTheta;
 
 		return new Vector3(x, y, z);
 	}
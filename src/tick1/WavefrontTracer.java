@@ -0,0 +1,405 @@
+package tick1;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Breadth-first alternative to Renderer.trace. Rather than following each depth-of-field sample down
+ * its reflections one at a time, a wavefront of samples is advanced one bounce at a time in bulk stages:
+ * all rays of the bounce are intersected, then the first few shadow rays of every light are generated
+ * and tested together, then the rest of the shadow rays of lights found to be in penumbra, and finally
+ * the hits are shaded and their reflected rays queued for the next bounce. Each queue keeps its rays in
+ * primitive arrays, binned by direction so that neighbouring rays visit the same parts of the scene.
+ * The queues and colours are kept between calls, so a tracer reused for tile after tile allocates
+ * nothing once they have grown to fit.
+ *
+ * Every sample resumes its sampler where it left off and draws from it in the same order as the
+ * recursive tracer, and each hit adds its throughput-weighted colour exactly as Renderer.shade does,
+ * so the results are identical to trace for the same seed.
+ */
+public class WavefrontTracer {
+
+	// Number of samples advanced together, which bounds the size of the shadow ray queue
+	private static final int WAVEFRONT_SIZE = 1024;
+
+	// Direction bins per axis within each octant when sorting queues
+	private static final int DIRECTION_BINS = 8;
+
+	private final Renderer renderer;
+	private final Sampler sampler;
+	private final int bounces;
+	private final int shadowRayCount;
+	private final int sampleCount;
+
+	// Samples to trace: pixel and sample index of each, and the position reached in its sampler
+	private int size = 0;
+	private int[] pixelX = new int[WAVEFRONT_SIZE], pixelY = new int[WAVEFRONT_SIZE];
+	private int[] sampleIndex = new int[WAVEFRONT_SIZE];
+	private final long[] samplerPosition = new long[WAVEFRONT_SIZE];
+
+	// Queue of paths with a ray to trace this bounce, stored as origin then direction per path
+	private final int[] queue = new int[WAVEFRONT_SIZE];
+	private int queueLength;
+	private final double[] rays = new double[6 * WAVEFRONT_SIZE];
+
+	// Closest hit of each queued path this bounce
+	private final Ray[] pathRays = new Ray[WAVEFRONT_SIZE];
+	private final RaycastHit[] hits = new RaycastHit[WAVEFRONT_SIZE];
+
+	// Throughput of each path's current ray, the weight given to the direct illumination at its hit (0 if
+	// not calculated) and the throughput of its reflected ray (0 if the path ends there)
+	private final double[] throughput = new double[WAVEFRONT_SIZE];
+	private final double[] directWeight = new double[WAVEFRONT_SIZE];
+	private final double[] reflectedThroughput = new double[WAVEFRONT_SIZE];
+
+	// Direct illumination at a hit
+	private final double[] direct = new double[3];
+
+	// Queue of shadow rays, with the distance to their light and the path and light they belong to
+	private int[] shadowQueue = new int[0];
+	private double[] shadowRays = new double[0];
+	private double[] shadowDistances = new double[0];
+	private int[] shadowOwners = new int[0];
+
+	// Lights chosen for each path's hit, indexed by path * slots + choice: the light, the weight of its
+	// contribution, the number of shadow rays cast to and reaching it, and the sampler position at which
+	// its set of points was started
+	private int slots;
+	private int[] ownerLights = new int[0];
+	private double[] ownerWeights = new double[0];
+	private int[] shadowCast = new int[0];
+	private int[] unoccluded = new int[0];
+	private long[] setPositions = new long[0];
+
+	// Lights chosen for the hit being shaded and their weights, before they are copied to its path's slots
+	private int[] chosenLights = new int[0];
+	private double[] lightWeights = new double[0];
+
+	// Colour of each sample traced, three per sample
+	private double[] colours = new double[0];
+
+	// Scratch space for binning queues
+	private final int[] binStarts = new int[8 * DIRECTION_BINS * DIRECTION_BINS + 1];
+	private int[] sorted = new int[0];
+
+	public WavefrontTracer(Renderer renderer, Sampler sampler, int bounces, int shadowRayCount, int sampleCount) {
+		this.renderer = renderer;
+		this.sampler = sampler;
+		this.bounces = bounces;
+		this.shadowRayCount = shadowRayCount;
+		this.sampleCount = sampleCount;
+	}
+
+	// Determine whether this tracer was created with the given sampler and settings
+	public boolean isConfigured(Sampler sampler, int bounces, int shadowRayCount, int sampleCount) {
+		return this.sampler == sampler && this.bounces == bounces && this.shadowRayCount == shadowRayCount
+				&& this.sampleCount == sampleCount;
+	}
+
+	// Remove all samples
+	public void clear() {
+		size = 0;
+	}
+
+	// Add sample number sample of pixel (x, y) to be traced
+	public void addSample(int x, int y, int sample) {
+		if (size == pixelX.length) {
+			pixelX = Arrays.copyOf(pixelX, 2 * size);
+			pixelY = Arrays.copyOf(pixelY, 2 * size);
+			sampleIndex = Arrays.copyOf(sampleIndex, 2 * size);
+		}
+		pixelX[size] = x;
+		pixelY[size] = y;
+		sampleIndex[size] = sample;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getX(int i) {
+		return pixelX[i];
+	}
+
+	public int getY(int i) {
+		return pixelY[i];
+	}
+
+	/*
+	 * Trace every sample added, returning an array holding the colour of sample i in [3 * i, 3 * i + 3),
+	 * which is reused by the next call. Samples are traced in wavefronts of a fixed size, so the queues
+	 * stay small however many are added.
+	 */
+	public double[] trace(Scene scene, Camera camera) {
+		if (colours.length < 3 * size) {
+			colours = new double[3 * size];
+		}
+		for (int first = 0; first < size; first += WAVEFRONT_SIZE) {
+			traceWavefront(scene, camera, first, Math.min(size, first + WAVEFRONT_SIZE) - first, colours);
+		}
+		return colours;
+	}
+
+	// Trace the count samples starting at first together
+	private void traceWavefront(Scene scene, Camera camera, int first, int count, double[] colours) {
+		List<PointLight> lights = scene.getPointLights();
+		slots = renderer.getLightSlots(scene);
+		ensureShadowCapacity(count * slots);
+		if (chosenLights.length < slots) {
+			chosenLights = new int[slots];
+			lightWeights = new double[slots];
+		}
+
+		// Queue the primary rays, remembering where each sample's sequence had reached
+		queueLength = 0;
+		Vector3 focalPoint = null;
+		for (int path = 0; path < count; path++) {
+			int x = pixelX[first + path], y = pixelY[first + path];
+			if (path == 0 || x != pixelX[first + path - 1] || y != pixelY[first + path - 1]) {
+				focalPoint = renderer.getFocalPoint(camera, x, y);
+			}
+			sampler.startSample(x, y, sampleIndex[first + path], sampleCount);
+			setRay(path, renderer.castDofRay(sampler, focalPoint));
+			samplerPosition[path] = sampler.getPosition();
+			throughput[path] = 1;
+			queue[queueLength++] = path;
+			Arrays.fill(colours, 3 * (first + path), 3 * (first + path + 1), 0);
+		}
+
+		for (int bounce = 0; bounce <= bounces && queueLength > 0; bounce++) {
+			intersect(scene, first, colours);
+			long start = RenderStats.startTimer();
+			traceShadowRays(scene, generateShadowRays(scene, lights, first, bounces - bounce));
+			traceShadowRays(scene, refineShadowRays(lights, first));
+			shade(scene, lights, first, colours);
+			RenderStats.stopTimer(RenderStats.Counter.ILLUMINATE_NANOS, start);
+		}
+	}
+
+	// Find the closest hit of every queued ray, adding the background to the paths that escape the scene
+	private void intersect(Scene scene, int first, double[] colours) {
+		binByDirection(rays, queue, queueLength);
+		ColorRGB background = renderer.getBackgroundColor();
+		int remaining = 0;
+		for (int i = 0; i < queueLength; i++) {
+			int path = queue[i];
+			Ray ray = getRay(path);
+			RaycastHit hit = scene.findClosestIntersection(ray);
+			if (hit.getObjectHit() == null) {
+				int offset = 3 * (first + path);
+				colours[offset] += background.r * throughput[path];
+				colours[offset + 1] += background.g * throughput[path];
+				colours[offset + 2] += background.b * throughput[path];
+			} else {
+				pathRays[path] = ray;
+				hits[path] = hit;
+				queue[remaining++] = path;
+			}
+		}
+		queueLength = remaining;
+	}
+
+	/*
+	 * Decide how each hit is weighted and whether its path continues, queueing the shadow rays of every
+	 * hit whose direct illumination is needed, and return how many there are
+	 */
+	private int generateShadowRays(Scene scene, List<PointLight> lights, int first, int bouncesLeft) {
+		int shadowCount = 0;
+		for (int i = 0; i < queueLength; i++) {
+			int path = queue[i];
+			double reflectivity = hits[path].getObjectHit().getReflectivity();
+			boolean lastBounce = renderer.isLastBounce(bouncesLeft, throughput[path], reflectivity);
+			directWeight[path] = Renderer.getDirectWeight(throughput[path], reflectivity, lastBounce);
+			if (!renderer.isVisible(directWeight[path])) {
+				directWeight[path] = 0;
+			}
+			sampler.resume(pixelX[first + path], pixelY[first + path], sampleIndex[first + path], sampleCount,
+					samplerPosition[path]);
+
+			Vector3 P = hits[path].getLocation();
+			Vector3 N = hits[path].getNormal();
+			Vector3 O = pathRays[path].getOrigin();
+			int chosen = directWeight[path] == 0 ? 0 : renderer.chooseLights(scene, P, sampler, chosenLights, lightWeights);
+			if (directWeight[path] != 0) {
+				SceneDependencies.recordShading();
+			}
+			for (int k = 0; k < slots; k++) {
+				int owner = path * slots + k;
+				unoccluded[owner] = 0;
+				shadowCast[owner] = 0;
+				if (k >= chosen) {
+					continue;
+				}
+				SceneDependencies.recordLight(chosenLights[k]);
+				if (!Renderer.receivesLight(lights.get(chosenLights[k]), P, N, O)) {
+					continue;
+				}
+				ownerLights[owner] = chosenLights[k];
+				ownerWeights[owner] = lightWeights[k];
+				setPositions[owner] = sampler.getPosition();
+				sampler.startSet(shadowRayCount);
+				shadowCast[owner] = renderer.getInitialShadowRayCount();
+				shadowCount = queueShadowRays(lights.get(chosenLights[k]), P, owner, 0, shadowCast[owner], shadowCount);
+			}
+			reflectedThroughput[path] = lastBounce ? 0
+					: renderer.getReflectedThroughput(throughput[path], reflectivity, sampler);
+			samplerPosition[path] = sampler.getPosition();
+		}
+		return shadowCount;
+	}
+
+	/*
+	 * Queue the remaining shadow rays of every light whose first rays disagreed, restarting its set of
+	 * points from the saved sampler position, and return how many there are
+	 */
+	private int refineShadowRays(List<PointLight> lights, int first) {
+		int shadowCount = 0;
+		for (int i = 0; i < queueLength; i++) {
+			int path = queue[i];
+			for (int k = 0; k < slots; k++) {
+				int owner = path * slots + k;
+				int cast = shadowCast[owner];
+				if (cast == 0 || cast == shadowRayCount || !Renderer.isPenumbra(unoccluded[owner], cast)) {
+					continue;
+				}
+				sampler.resume(pixelX[first + path], pixelY[first + path], sampleIndex[first + path], sampleCount,
+						setPositions[owner]);
+				sampler.startSet(shadowRayCount);
+				shadowCount = queueShadowRays(lights.get(ownerLights[owner]), hits[path].getLocation(), owner, cast,
+						shadowRayCount, shadowCount);
+				shadowCast[owner] = shadowRayCount;
+			}
+		}
+		return shadowCount;
+	}
+
+	// Queue shadow rays from to to of the sampler's current set for owner, returning the new queue length
+	private int queueShadowRays(PointLight light, Vector3 P, int owner, int from, int to, int shadowCount) {
+		double distanceToLight = Renderer.getDistanceToLight(light, P);
+		for (int j = from; j < to; j++) {
+			renderer.sampleShadowRay(sampler, j, light, P, shadowRays, 6 * shadowCount);
+			shadowDistances[shadowCount] = distanceToLight;
+			shadowOwners[shadowCount] = owner;
+			shadowQueue[shadowCount] = shadowCount;
+			shadowCount++;
+		}
+		return shadowCount;
+	}
+
+	// Test every queued shadow ray for occlusion, counting those that reach their light
+	private void traceShadowRays(Scene scene, int shadowCount) {
+		binByDirection(shadowRays, shadowQueue, shadowCount);
+		for (int i = 0; i < shadowCount; i++) {
+			int s = shadowQueue[i], offset = 6 * s;
+			if (!scene.occluded(shadowRays[offset], shadowRays[offset + 1], shadowRays[offset + 2],
+					shadowRays[offset + 3], shadowRays[offset + 4], shadowRays[offset + 5], shadowDistances[s])) {
+				unoccluded[shadowOwners[s]]++;
+			}
+		}
+	}
+
+	// Shade every hit from its shadow ray counts, queueing reflected rays for the next bounce
+	private void shade(Scene scene, List<PointLight> lights, int first, double[] colours) {
+		int remaining = 0;
+		for (int i = 0; i < queueLength; i++) {
+			int path = queue[i];
+			RaycastHit hit = hits[path];
+			SceneObject object = hit.getObjectHit();
+			Vector3 P = hit.getLocation();
+			Vector3 N = hit.getNormal();
+			Vector3 O = pathRays[path].getOrigin();
+
+			// Add the direct illumination at the point, scaled to conserve light
+			if (directWeight[path] != 0) {
+				renderer.addAmbient(direct, 0, scene, object);
+				for (int k = 0; k < slots; k++) {
+					int owner = path * slots + k;
+					if (shadowCast[owner] != 0) {
+						double shadowScaleFactor = Renderer.getShadowScaleFactor(unoccluded[owner], shadowCast[owner])
+								* ownerWeights[owner];
+						renderer.addLight(direct, 0, object, lights.get(ownerLights[owner]), P, N, O, shadowScaleFactor);
+					}
+				}
+				int offset = 3 * (first + path);
+				colours[offset] += direct[0] * directWeight[path];
+				colours[offset + 1] += direct[1] * directWeight[path];
+				colours[offset + 2] += direct[2] * directWeight[path];
+			}
+
+			// Queue the reflected ray, unless the path ends here
+			if (reflectedThroughput[path] != 0) {
+				throughput[path] = reflectedThroughput[path];
+				setRay(path, renderer.reflect(pathRays[path], P, N));
+				queue[remaining++] = path;
+			}
+			hits[path] = null;
+			pathRays[path] = null;
+		}
+		queueLength = remaining;
+	}
+
+	/*
+	 * Reorder the count ray indices in items so that rays with similar directions are adjacent: first by
+	 * octant, then by a coarse grid over the x and y direction components. The sort is stable, so rays
+	 * from the same origin stay together within a bin.
+	 */
+	private void binByDirection(double[] rayData, int[] items, int count) {
+		if (sorted.length < count) {
+			sorted = new int[count];
+		}
+		Arrays.fill(binStarts, 0);
+		for (int i = 0; i < count; i++) {
+			binStarts[getDirectionBin(rayData, 6 * items[i]) + 1]++;
+		}
+		for (int bin = 1; bin < binStarts.length; bin++) {
+			binStarts[bin] += binStarts[bin - 1];
+		}
+		for (int i = 0; i < count; i++) {
+			sorted[binStarts[getDirectionBin(rayData, 6 * items[i])]++] = items[i];
+		}
+		System.arraycopy(sorted, 0, items, 0, count);
+	}
+
+	private static int getDirectionBin(double[] rayData, int offset) {
+		double dx = rayData[offset + 3], dy = rayData[offset + 4], dz = rayData[offset + 5];
+		int octant = (dx < 0 ? 1 : 0) | (dy < 0 ? 2 : 0) | (dz < 0 ? 4 : 0);
+		int binX = Math.min(DIRECTION_BINS - 1, (int) ((dx + 1) * 0.5 * DIRECTION_BINS));
+		int binY = Math.min(DIRECTION_BINS - 1, (int) ((dy + 1) * 0.5 * DIRECTION_BINS));
+		return (octant * DIRECTION_BINS + binX) * DIRECTION_BINS + binY;
+	}
+
+	private void ensureShadowCapacity(int lightChoices) {
+		int capacity = lightChoices * shadowRayCount;
+		if (shadowQueue.length < capacity) {
+			shadowQueue = new int[capacity];
+			shadowRays = new double[6 * capacity];
+			shadowDistances = new double[capacity];
+			shadowOwners = new int[capacity];
+		}
+		if (unoccluded.length < lightChoices) {
+			ownerLights = new int[lightChoices];
+			ownerWeights = new double[lightChoices];
+			shadowCast = new int[lightChoices];
+			unoccluded = new int[lightChoices];
+			setPositions = new long[lightChoices];
+		}
+	}
+
+	private void setRay(int path, Ray ray) {
+		Vector3 origin = ray.getOrigin(), direction = ray.getDirection();
+		int offset = 6 * path;
+		rays[offset] = origin.x;
+		rays[offset + 1] = origin.y;
+		rays[offset + 2] = origin.z;
+		rays[offset + 3] = direction.x;
+		rays[offset + 4] = direction.y;
+		rays[offset + 5] = direction.z;
+	}
+
+	private Ray getRay(int path) {
+		int offset = 6 * path;
+		return new Ray(new Vector3(rays[offset], rays[offset + 1], rays[offset + 2]),
+				new Vector3(rays[offset + 3], rays[offset + 4], rays[offset + 5]));
+	}
+}